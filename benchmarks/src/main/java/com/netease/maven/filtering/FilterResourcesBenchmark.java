@@ -0,0 +1,96 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.filtering.DefaultMavenResourcesFiltering;
+import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a whole <code>filterResources</code> over a synthetic resource tree,
+ * the enhancer against stock {@link DefaultMavenResourcesFiltering}. Every
+ * invocation is a new execution overwriting the previous output, as a clean
+ * build would be; <code>threads</code> only applies to the enhancer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterResourcesBenchmark {
+
+	@Param({ "200", "2000" })
+	public int files;
+
+	@Param({ "8192" })
+	public int length;
+
+	@Param({ "0.005" })
+	public double density;
+
+	@Param({ "1", "4" })
+	public String threads;
+
+	private File basedir;
+
+	private File resources;
+
+	private File output;
+
+	private MavenProject project;
+
+	private MavenSession session;
+
+	private LinkedHashSet<String> delimiters;
+
+	private DefaultMavenResourcesFiltering stock;
+
+	private FilteringEnhancer enhancer;
+
+	@Setup
+	public void setUp() throws Exception {
+		basedir = Fixtures.createTempDirectory("resources-bench");
+		resources = new File(basedir, "src/main/resources");
+		output = new File(basedir, "target/classes");
+		delimiters = Fixtures.delimiters("${*},@");
+		Fixtures.resourceTree(resources, files, length, density, delimiters);
+
+		project = Fixtures.project(basedir);
+		project.getProperties().setProperty(FilteringEnhancerOptions.THREADS, threads);
+		session = Fixtures.session(project, basedir);
+		stock = Fixtures.resourcesFiltering(new DefaultMavenResourcesFiltering());
+		enhancer = Fixtures.resourcesFiltering(new FilteringEnhancer());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(basedir);
+	}
+
+	@Benchmark
+	public void stock() throws MavenFilteringException {
+		stock.filterResources(Fixtures.execution(project, session, resources, output, delimiters));
+	}
+
+	@Benchmark
+	public void enhancer() throws MavenFilteringException {
+		enhancer.filterResources(Fixtures.execution(project, session, resources, output, delimiters));
+	}
+}
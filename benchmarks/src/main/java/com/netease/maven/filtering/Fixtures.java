@@ -0,0 +1,257 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Resource;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.filtering.DefaultMavenFileFilter;
+import org.apache.maven.shared.filtering.DefaultMavenReaderFilter;
+import org.apache.maven.shared.filtering.DefaultMavenResourcesFiltering;
+import org.apache.maven.shared.filtering.MavenResourcesExecution;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.apache.maven.shared.utils.io.FileUtils.FilterWrapper;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.sonatype.plexus.build.incremental.BuildContext;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Stand-ins for what Maven hands to a resources filtering component: a
+ * project and a session built from plain models, a non incremental build
+ * context, components wired the way the container would, and synthetic text
+ * with a given share of expressions.
+ */
+final class Fixtures {
+
+	/**
+	 * distinct keys used in the generated text, <code>k0</code> to
+	 * <code>k63</code>
+	 */
+	static final int KEYS = 64;
+
+	private Fixtures() {
+	}
+
+	static MavenProject project(File basedir) {
+		Model model = new Model();
+		model.setGroupId("com.netease.maven");
+		model.setArtifactId("bench");
+		model.setVersion("1.0.0");
+		Build build = new Build();
+		build.setFinalName("bench-1.0.0");
+		build.setDirectory(new File(basedir, "target").getPath());
+		model.setBuild(build);
+		Properties properties = new Properties();
+		properties.setProperty("project.owner", "bench");
+		model.setProperties(properties);
+		MavenProject project = new MavenProject(model);
+		project.setFile(new File(basedir, "pom.xml"));
+		return project;
+	}
+
+	@SuppressWarnings("deprecation")
+	static MavenSession session(MavenProject project, File basedir) {
+		DefaultMavenExecutionRequest request = new DefaultMavenExecutionRequest();
+		Properties systemProperties = new Properties();
+		systemProperties.putAll(System.getProperties());
+		request.setSystemProperties(systemProperties);
+		request.setUserProperties(new Properties());
+		request.setStartTime(new Date());
+		request.setBaseDirectory(basedir);
+		request.setLocalRepositoryPath(new File(basedir, "repository"));
+		MavenSession session = new MavenSession(null, request, new DefaultMavenExecutionResult(), project);
+		session.setCurrentProject(project);
+		return session;
+	}
+
+	/**
+	 * @return <code>k0=value-0</code> to <code>k63=value-63</code> and a chain
+	 *         <code>nested</code> resolving through five other keys
+	 */
+	static Properties values() {
+		Properties values = new Properties();
+		for (int i = 0; i < KEYS; i++) {
+			values.setProperty("k" + i, "value-" + i);
+		}
+		values.setProperty("nested", "${n1}");
+		values.setProperty("n1", "${n2}-1");
+		values.setProperty("n2", "${n3}-2");
+		values.setProperty("n3", "${n4}-3");
+		values.setProperty("n4", "${k0}-4");
+		return values;
+	}
+
+	/**
+	 * @param specs
+	 *            comma separated delimiter specs such as <code>${*},@</code>
+	 */
+	static LinkedHashSet<String> delimiters(String specs) {
+		return new LinkedHashSet<String>(Arrays.asList(specs.split(",")));
+	}
+
+	/**
+	 * @param density
+	 *            chance that an expression starts at a given character
+	 * @return lines of lower case words with expressions over the keys of
+	 *         {@link #values()} in any of the given delimiters
+	 */
+	static String text(int length, double density, LinkedHashSet<String> delimiters, long seed) {
+		List<String[]> tokens = new ArrayList<String[]>();
+		for (String spec : delimiters) {
+			int star = spec.indexOf('*');
+			tokens.add(star < 0 ? new String[] { spec, spec }
+					: new String[] { spec.substring(0, star), spec.substring(star + 1) });
+		}
+		Random random = new Random(seed);
+		StringBuilder text = new StringBuilder(length + 64);
+		int column = 0;
+		while (text.length() < length) {
+			if (random.nextDouble() < density) {
+				String[] token = tokens.get(random.nextInt(tokens.size()));
+				text.append(token[0]).append('k').append(random.nextInt(KEYS)).append(token[1]);
+			} else if (column > 72) {
+				text.append('\n');
+				column = 0;
+			} else {
+				text.append(random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+				column++;
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Writes <code>files</code> files of generated text spread over ten
+	 * directories.
+	 */
+	static void resourceTree(File directory, int files, int length, double density, LinkedHashSet<String> delimiters)
+			throws IOException {
+		for (int i = 0; i < files; i++) {
+			File file = new File(directory, "dir" + (i % 10) + "/file" + i + ".properties");
+			file.getParentFile().mkdirs();
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(text(length, density, delimiters, i));
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	static MavenResourcesExecution execution(MavenProject project, MavenSession session, File resources,
+			File output, LinkedHashSet<String> delimiters) {
+		Resource resource = new Resource();
+		resource.setDirectory(resources.getPath());
+		resource.setFiltering(true);
+		MavenResourcesExecution execution = new MavenResourcesExecution();
+		execution.setResources(Collections.singletonList(resource));
+		execution.setOutputDirectory(output);
+		execution.setMavenProject(project);
+		execution.setMavenSession(session);
+		execution.setEncoding("UTF-8");
+		execution.setDelimiters(delimiters);
+		execution.setEscapeString("\\");
+		execution.setAdditionalProperties(values());
+		execution.setFilterWrappers(new ArrayList<FilterWrapper>());
+		execution.setUseDefaultFilterWrappers(true);
+		execution.setOverwrite(true);
+		execution.setInjectProjectBuildFilters(false);
+		return execution;
+	}
+
+	/**
+	 * @return the filter wrappers stock maven-filtering builds for the
+	 *         execution
+	 */
+	static List<FilterWrapper> stockWrappers(MavenResourcesExecution execution) throws Exception {
+		DefaultMavenReaderFilter readerFilter = new DefaultMavenReaderFilter();
+		readerFilter.enableLogging(logger());
+		return readerFilter.getDefaultFilterWrappers(execution);
+	}
+
+	/**
+	 * @return the filter wrappers the enhancer builds for the execution
+	 */
+	static List<FilterWrapper> enhancerWrappers(MavenResourcesExecution execution) throws Exception {
+		Method handle = FilteringEnhancer.class.getDeclaredMethod("handleDefaultFilterWrappers",
+				MavenResourcesExecution.class);
+		handle.setAccessible(true);
+		handle.invoke(resourcesFiltering(new FilteringEnhancer()), execution);
+		return execution.getFilterWrappers();
+	}
+
+	/**
+	 * Injects the requirements the container would, for the stock component
+	 * as well as for the enhancer.
+	 */
+	static <T extends DefaultMavenResourcesFiltering> T resourcesFiltering(T filtering) throws Exception {
+		BuildContext buildContext = new DefaultBuildContext();
+		DefaultMavenReaderFilter readerFilter = new DefaultMavenReaderFilter();
+		readerFilter.enableLogging(logger());
+		DefaultMavenFileFilter fileFilter = new DefaultMavenFileFilter();
+		fileFilter.enableLogging(logger());
+		inject(fileFilter, DefaultMavenFileFilter.class, "readerFilter", readerFilter);
+		inject(fileFilter, DefaultMavenFileFilter.class, "buildContext", buildContext);
+
+		filtering.enableLogging(logger());
+		inject(filtering, DefaultMavenResourcesFiltering.class, "buildContext", buildContext);
+		inject(filtering, DefaultMavenResourcesFiltering.class, "mavenFileFilter", fileFilter);
+		if (filtering instanceof FilteringEnhancer) {
+			inject(filtering, FilteringEnhancer.class, "buildContext", buildContext);
+			inject(filtering, FilteringEnhancer.class, "mavenFileFilter", fileFilter);
+		}
+		filtering.initialize();
+		return filtering;
+	}
+
+	private static void inject(Object target, Class<?> type, String name, Object value) throws Exception {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(target, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				// declared higher up
+			}
+		}
+		throw new NoSuchFieldException(type.getName() + "." + name);
+	}
+
+	static Logger logger() {
+		return new ConsoleLogger(Logger.LEVEL_WARN, "bench");
+	}
+
+	static File createTempDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdirs()) {
+			throw new IOException("cannot create " + directory);
+		}
+		return directory;
+	}
+
+	static void delete(File directory) throws IOException {
+		if (directory != null) {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.multi.MultiDelimiterStringSearchInterpolator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Interpolates a single expression with the enhancer's interpolator, with and
+ * without its answer cache, and with the stock multi delimiter interpolator
+ * over the same properties and project. The stock interpolator has no default
+ * values, it leaves <code>${missing?fallback}</code> as it is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolatorBenchmark {
+
+	private static final List<String> PROJECT_PREFIXES = Arrays.asList("project.", "pom.");
+
+	@Param({ "${k1}", "${nested}", "${missing?fallback}", "${k1?fallback}", "${project.version}",
+			"value ${k1} and ${k2} in text" })
+	public String expression;
+
+	private FilteringEnhancerInterpolator enhancer;
+
+	private FilteringEnhancerInterpolator enhancerCached;
+
+	private MultiDelimiterStringSearchInterpolator stock;
+
+	@Setup
+	public void setUp() {
+		LinkedHashSet<String> delimiters = Fixtures.delimiters("${*},@");
+		MavenProject project = Fixtures.project(new File("."));
+
+		enhancer = enhancer(delimiters, project);
+		enhancerCached = enhancer(delimiters, project);
+		enhancerCached.setCacheAnswers(true);
+
+		stock = new MultiDelimiterStringSearchInterpolator();
+		stock.setDelimiterSpecs(delimiters);
+		stock.addValueSource(new PropertiesBasedValueSource(Fixtures.values()));
+		stock.addValueSource(new PrefixedObjectValueSource(PROJECT_PREFIXES, project, true));
+		stock.setEscapeString("\\");
+	}
+
+	private static FilteringEnhancerInterpolator enhancer(LinkedHashSet<String> delimiters, MavenProject project) {
+		FilteringEnhancerInterpolator interpolator = new FilteringEnhancerInterpolator();
+		interpolator.setDelimiterSpecs(delimiters);
+		interpolator.setDelimiterMatcher(DelimiterMatcher.compile(delimiters));
+		interpolator.addValueSource(new PropertiesBasedValueSource(Fixtures.values()));
+		interpolator.addValueSource(new CompiledObjectValueSource(PROJECT_PREFIXES, project, true));
+		interpolator.setEscapeString("\\");
+		return interpolator;
+	}
+
+	@Benchmark
+	public String stock() throws InterpolationException {
+		return stock.interpolate(expression, new PrefixAwareRecursionInterceptor(PROJECT_PREFIXES, true));
+	}
+
+	@Benchmark
+	public String enhancer() throws InterpolationException {
+		return enhancer.interpolate(expression, new PrefixAwareRecursionInterceptor(PROJECT_PREFIXES, true));
+	}
+
+	@Benchmark
+	public String enhancerCached() throws InterpolationException {
+		return enhancerCached.interpolate(expression, new PrefixAwareRecursionInterceptor(PROJECT_PREFIXES, true));
+	}
+}
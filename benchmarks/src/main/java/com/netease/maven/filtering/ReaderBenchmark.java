@@ -0,0 +1,94 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils.FilterWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filters 256K characters of text through the reader of one filter wrapper,
+ * the enhancer's against the stock one, across expression densities and
+ * delimiter sets. Both wrappers are built from the same execution the way
+ * their components build them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+
+	@Param({ "0", "0.0005", "0.005", "0.05" })
+	public double density;
+
+	@Param({ "${*}", "${*},@", "${*},@,#{*},[[*]]" })
+	public String delimiters;
+
+	@Param({ "262144" })
+	public int length;
+
+	private File basedir;
+
+	private String text;
+
+	private FilterWrapper stock;
+
+	private FilterWrapper enhancer;
+
+	private final char[] buffer = new char[8192];
+
+	@Setup
+	public void setUp() throws Exception {
+		basedir = Fixtures.createTempDirectory("reader-bench");
+		MavenProject project = Fixtures.project(basedir);
+		MavenSession session = Fixtures.session(project, basedir);
+		LinkedHashSet<String> specs = Fixtures.delimiters(delimiters);
+		text = Fixtures.text(length, density, specs, 1);
+		stock = Fixtures.stockWrappers(Fixtures.execution(project, session, basedir, basedir, specs)).get(0);
+		enhancer = Fixtures.enhancerWrappers(Fixtures.execution(project, session, basedir, basedir, specs)).get(0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Fixtures.delete(basedir);
+	}
+
+	@Benchmark
+	public long stock() throws IOException {
+		return drain(stock.getReader(new StringReader(text)));
+	}
+
+	@Benchmark
+	public long enhancer() throws IOException {
+		return drain(enhancer.getReader(new StringReader(text)));
+	}
+
+	private long drain(Reader reader) throws IOException {
+		long count = 0;
+		int read;
+		while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+			count += read;
+		}
+		reader.close();
+		return count;
+	}
+}
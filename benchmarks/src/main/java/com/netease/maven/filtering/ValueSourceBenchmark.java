@@ -0,0 +1,68 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.ValueSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up one object expression through {@link CompiledObjectValueSource}
+ * and through the stock {@link PrefixedObjectValueSource} it replaces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueSourceBenchmark {
+
+	private static final List<String> PROJECT_PREFIXES = Arrays.asList("project.", "pom.");
+
+	@Param({ "project.version", "project.build.finalName", "pom.artifactId", "session.executionRootDirectory" })
+	public String expression;
+
+	private ValueSource stock;
+
+	private ValueSource compiled;
+
+	@Setup
+	public void setUp() {
+		File basedir = new File(".");
+		MavenProject project = Fixtures.project(basedir);
+		if (expression.startsWith("session.")) {
+			MavenSession session = Fixtures.session(project, basedir);
+			stock = new PrefixedObjectValueSource("session", session);
+			compiled = new CompiledObjectValueSource("session", session);
+		} else {
+			stock = new PrefixedObjectValueSource(PROJECT_PREFIXES, project, true);
+			compiled = new CompiledObjectValueSource(PROJECT_PREFIXES, project, true);
+		}
+	}
+
+	@Benchmark
+	public Object stock() {
+		return stock.getValue(expression);
+	}
+
+	@Benchmark
+	public Object compiled() {
+		return compiled.getValue(expression);
+	}
+}
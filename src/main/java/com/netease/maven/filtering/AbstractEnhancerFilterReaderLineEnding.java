@@ -7,6 +7,11 @@ import java.util.LinkedHashSet;
 import org.codehaus.plexus.interpolation.multi.DelimiterSpecification;
 
 public class AbstractEnhancerFilterReaderLineEnding extends FilterReader{
+	    /**
+	     * characters searched for the end token by default
+	     */
+	    public static final int DEFAULT_LOOKAHEAD = 4096;
+
 	  private String escapeString;
 
 	    /**
@@ -21,10 +26,15 @@ public class AbstractEnhancerFilterReaderLineEnding extends FilterReader{
 
 	    protected LinkedHashSet<DelimiterSpecification> delimiters = new LinkedHashSet<DelimiterSpecification>();
 
+	    /**
+	     * characters searched for the end token, the mark length adds the delimiters to it
+	     */
+	    private int lookahead = DEFAULT_LOOKAHEAD;
+
 	    /**
 	     * must always be bigger than escape string plus delimiters, but doesn't need to be exact
 	     */
-	    protected int markLength = 4096;
+	    protected int markLength = DEFAULT_LOOKAHEAD;
 
 	    protected AbstractEnhancerFilterReaderLineEnding( Reader in )
 	    {
@@ -69,9 +79,27 @@ public class AbstractEnhancerFilterReaderLineEnding extends FilterReader{
 	        this.preserveEscapeString = preserveEscapeString;
 	    }
 
+	    /**
+	     * @param lookahead characters searched for the end token of an expression, longer expressions are copied
+	     *            unfiltered.
+	     */
+	    public void setLookahead( int lookahead )
+	    {
+	        this.lookahead = lookahead;
+	        calculateMarkLength();
+	    }
+
+	    /**
+	     * @return how far the reader looks ahead of a begin token or escape string, in characters.
+	     */
+	    int getMarkLength()
+	    {
+	        return markLength;
+	    }
+
 	    protected void calculateMarkLength()
 	    {
-	        markLength = 4096;
+	        markLength = lookahead;
 
 	        if ( escapeString != null )
 	        {
@@ -0,0 +1,359 @@
+package com.netease.maven.filtering;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.interpolation.InterpolationException;
+
+import com.netease.maven.filtering.FilteringEnhancer.EnhencerWrappers;
+
+/**
+ * Byte level twin of {@link MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding}
+ * for the encodings {@link LiteralSplicer} supports. Delimiters, the escape
+ * string and line ends are ASCII and matched on the raw bytes; only token keys
+ * are decoded and only replacement values are encoded, literal text is never
+ * converted. Every step mirrors the reader, the mark length still counted in
+ * characters, so both write the same bytes.
+ * <p>
+ * An instance serves the ranges of one file in order.
+ */
+final class ByteTokenFilter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Charset charset;
+
+	private final boolean utf8;
+
+	private final DelimiterMatcher matcher;
+
+	private final String escapeString;
+
+	/**
+	 * ASCII bytes starting a begin token or the escape string
+	 */
+	private final boolean[] candidates = new boolean[128];
+
+	private final boolean supportMultiLineFiltering;
+
+	private final int markLength;
+
+	/**
+	 * bytes holding at least <code>markLength</code> characters
+	 */
+	private final int lookahead;
+
+	private final EnhencerWrappers wrapper;
+
+	private final TokenListener tokenListener;
+
+	private final LookaheadListener lookaheadListener;
+
+	private boolean lookaheadReported;
+
+	/**
+	 * tokens of the file and their replacement
+	 */
+	private final Map<String, String> values = new HashMap<String, String>();
+
+	private final Map<String, byte[]> replacements = new HashMap<String, byte[]>();
+
+	private final byte[] buf;
+
+	private int pos;
+
+	private int limit;
+
+	private int literalEnd;
+
+	private FileChannel in;
+
+	private long position;
+
+	private long end;
+
+	/**
+	 * high surrogate ending the last replacement, the reader's encoder would
+	 * still pair it with the next character
+	 */
+	private char pendingHigh;
+
+	ByteTokenFilter(Charset charset, DelimiterMatcher matcher, String escapeString, boolean supportMultiLineFiltering,
+			int markLength, EnhencerWrappers wrapper, TokenListener tokenListener, LookaheadListener lookaheadListener) {
+		this.charset = charset;
+		this.utf8 = "UTF-8".equals(charset.name());
+		this.matcher = matcher;
+		this.escapeString = escapeString != null && escapeString.length() > 0 ? escapeString : null;
+		for (char c = 0; c < candidates.length; c++) {
+			candidates[c] = matcher.isStart(c);
+		}
+		if (this.escapeString != null) {
+			candidates[this.escapeString.charAt(0)] = true;
+		}
+		this.supportMultiLineFiltering = supportMultiLineFiltering;
+		this.markLength = markLength;
+		this.lookahead = markLength * (utf8 ? 3 : 1);
+		this.wrapper = wrapper;
+		this.tokenListener = tokenListener;
+		this.lookaheadListener = lookaheadListener;
+		this.buf = new byte[BUFFER_SIZE + lookahead];
+	}
+
+	/**
+	 * Filters the bytes <code>[start, end)</code> of <code>in</code> to
+	 * <code>out</code> as if they were a file of their own.
+	 */
+	void filter(FileChannel in, long start, long end, OutputStream out) throws IOException {
+		this.in = in;
+		this.position = start;
+		this.end = end;
+		pos = 0;
+		limit = 0;
+		literalEnd = 0;
+
+		while (true) {
+			if (pos >= limit && fill(1) == 0) {
+				break;
+			}
+
+			// escaped text is copied without looking for tokens
+			if (pos < literalEnd) {
+				write(out, literalEnd - pos);
+				continue;
+			}
+
+			// copy the literal run up to the next candidate byte
+			int i = pos;
+			while (i < limit && (buf[i] < 0 || !candidates[buf[i]])) {
+				i++;
+			}
+			if (i > pos) {
+				write(out, i - pos);
+				continue;
+			}
+
+			readToken(out);
+		}
+		flushPending(out);
+	}
+
+	private void readToken(OutputStream out) throws IOException {
+		fill(lookahead);
+
+		int start = pos;
+
+		// have we found an escape string?
+		if (escapeString != null && regionMatches(start, escapeString)) {
+			int next = start + escapeString.length();
+			if (next >= limit) {
+				// escape string at EOF, nothing to protect
+				literalEnd = next;
+			} else {
+				// escape means no luck, prevent parsing of the escaped
+				// character
+				if (matcher.match(buf, next, limit) > -1) {
+					pos = next;
+				}
+				literalEnd = next + characterLength(buf[next]);
+			}
+			return;
+		}
+
+		// have we found a delimiter?
+		int spec = matcher.match(buf, start, limit);
+		if (spec == -1) {
+			write(out, 1);
+			return;
+		}
+
+		// we're committed, find the end token, EOL, EOF or the mark limit
+		String beginToken = matcher.getBegin(spec);
+		String endToken = matcher.getEnd(spec);
+		boolean nests = !beginToken.equals(endToken);
+		int chars = beginToken.length();
+		int tokenEnd = -1;
+		int depth = 0;
+		boolean inDefault = false;
+		boolean endOfLine = false;
+		for (int i = start + chars; i + endToken.length() <= limit && chars <= markLength - endToken.length();) {
+			if (buf[i] == '\n' && !supportMultiLineFiltering) {
+				endOfLine = true;
+				break;
+			}
+			// expressions within a default value are closed first
+			if (nests && !inDefault) {
+				inDefault = buf[i] == '?';
+			} else if (nests && regionMatches(i, beginToken)) {
+				depth++;
+				i += beginToken.length();
+				chars += beginToken.length();
+				continue;
+			}
+			if (regionMatches(i, endToken)) {
+				if (depth == 0) {
+					tokenEnd = i + endToken.length();
+					break;
+				}
+				depth--;
+				i += endToken.length();
+				chars += endToken.length();
+				continue;
+			}
+			int length = characterLength(buf[i]);
+			i += length;
+			chars += length == 4 ? 2 : 1;
+		}
+
+		// no endtoken? Write current byte and continue in search for next
+		// expression
+		if (tokenEnd == -1) {
+			if (!endOfLine && lookaheadListener != null && !lookaheadReported && holdsMarkLength(start)) {
+				lookaheadReported = true;
+				lookaheadListener.lookaheadExceeded(excerpt(start));
+			}
+			write(out, 1);
+			return;
+		}
+
+		String key = new String(buf, start, tokenEnd - start, charset);
+		String value = values.get(key);
+		if (value == null) {
+			try {
+				value = wrapper.resolve(key);
+			} catch (InterpolationException e) {
+				IllegalArgumentException error = new IllegalArgumentException(e.getMessage());
+				error.initCause(e);
+
+				throw error;
+			}
+			values.put(key, value);
+		}
+		pos = tokenEnd;
+		if (tokenListener != null) {
+			tokenListener.tokenResolved(key, value);
+		}
+
+		if (pendingHigh != 0 || (value.length() > 0 && Character.isHighSurrogate(value.charAt(value.length() - 1)))) {
+			writeText(out, pendingHigh != 0 ? pendingHigh + value : value);
+			return;
+		}
+		byte[] replacement = replacements.get(key);
+		if (replacement == null) {
+			replacement = value.getBytes(charset);
+			replacements.put(key, replacement);
+		}
+		out.write(replacement);
+	}
+
+	/**
+	 * @return true if the window holds a mark length of characters from
+	 *         <code>start</code>, as the reader's would
+	 */
+	private boolean holdsMarkLength(int start) {
+		if (position < end) {
+			return true;
+		}
+		int chars = 0;
+		for (int i = start; i < limit && chars < markLength; i += characterLength(buf[i])) {
+			chars += characterLength(buf[i]) == 4 ? 2 : 1;
+		}
+		return chars >= markLength;
+	}
+
+	private String excerpt(int start) {
+		int length = Math.min(MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding.EXCERPT_LENGTH, markLength);
+		int i = start;
+		for (int chars = 0; i < limit && chars < length && buf[i] != '\n';) {
+			chars += characterLength(buf[i]) == 4 ? 2 : 1;
+			i = Math.min(limit, i + characterLength(buf[i]));
+		}
+		return new String(buf, start, i - start, charset);
+	}
+
+	/**
+	 * Encodes <code>text</code>, keeping a trailing high surrogate for the next
+	 * replacement.
+	 */
+	private void writeText(OutputStream out, String text) throws IOException {
+		pendingHigh = 0;
+		int length = text.length();
+		if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) {
+			pendingHigh = text.charAt(length - 1);
+			length--;
+		}
+		out.write(text.substring(0, length).getBytes(charset));
+	}
+
+	private void flushPending(OutputStream out) throws IOException {
+		if (pendingHigh != 0) {
+			out.write(String.valueOf(pendingHigh).getBytes(charset));
+			pendingHigh = 0;
+		}
+	}
+
+	private void write(OutputStream out, int count) throws IOException {
+		flushPending(out);
+		out.write(buf, pos, count);
+		pos += count;
+	}
+
+	private boolean regionMatches(int at, String token) {
+		int length = token.length();
+		if (at + length > limit) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			byte c = buf[at + i];
+			if (c != token.charAt(i) || (c == '\n' && !supportMultiLineFiltering)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of bytes of the character starting with
+	 *         <code>lead</code>
+	 */
+	private int characterLength(byte lead) {
+		if (lead >= 0 || !utf8) {
+			return 1;
+		}
+		int b = lead & 0xFF;
+		return b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+	}
+
+	/**
+	 * Makes at least <code>wanted</code> bytes available in the window unless
+	 * the range ends first.
+	 *
+	 * @return the number of bytes available from the current position
+	 */
+	private int fill(int wanted) throws IOException {
+		if (limit - pos >= wanted || position >= end) {
+			return limit - pos;
+		}
+
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			literalEnd = Math.max(0, literalEnd - pos);
+			pos = 0;
+		}
+		while (limit < wanted && position < end) {
+			int count = (int) Math.min(buf.length - limit, end - position);
+			int read = in.read(ByteBuffer.wrap(buf, limit, count), position);
+			if (read == -1) {
+				throw new IOException("source file changed while being filtered");
+			}
+			limit += read;
+			position += read;
+		}
+		return limit - pos;
+	}
+}
@@ -0,0 +1,293 @@
+package com.netease.maven.filtering;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.ValueSource;
+
+/**
+ * Resolves expressions such as <code>project.build.finalName</code> against an
+ * object graph like {@link PrefixedObjectValueSource} does, but compiles every
+ * distinct expression once into a chain of getter lookups. Each step of the
+ * chain remembers the getter of the last class it met, so repeated lookups do
+ * no method search at all.
+ * <p>
+ * Expressions are compiled on first use only and the instance is safe for
+ * concurrent use. The compiled expressions hold no value of the root, value
+ * sources with the same prefixes may share them through {@link Accessors},
+ * which are only looked up the first time an expression may be answered by
+ * this source.
+ */
+class CompiledObjectValueSource implements ValueSource {
+
+	private static final Object[] NO_ARGS = {};
+
+	/**
+	 * cached for expressions that do not start with one of the prefixes
+	 */
+	private static final Accessor NOT_MINE = new Accessor(null, new Property[0]);
+
+	private final String[] prefixes;
+
+	private final boolean allowUnprefixedExpressions;
+
+	/**
+	 * where the accessors are shared, may be <code>null</code>
+	 */
+	private final SharedFilteringState shared;
+
+	private volatile Accessors accessors;
+
+	private final Object root;
+
+	private final List<Object> feedback = Collections.synchronizedList(new ArrayList<Object>());
+
+	CompiledObjectValueSource(String prefix, Object root) {
+		this(Collections.singletonList(prefix), root, false);
+	}
+
+	CompiledObjectValueSource(List<String> prefixes, Object root, boolean allowUnprefixedExpressions) {
+		this(null, prefixes, root, allowUnprefixedExpressions);
+	}
+
+	/**
+	 * @param shared
+	 *            state to take the {@link Accessors} from, may be
+	 *            <code>null</code>
+	 */
+	CompiledObjectValueSource(SharedFilteringState shared, List<String> prefixes, Object root,
+			boolean allowUnprefixedExpressions) {
+		this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+		this.allowUnprefixedExpressions = allowUnprefixedExpressions;
+		this.shared = shared;
+		this.root = root;
+	}
+
+	/**
+	 * @return the prefixes of the expressions this source answers, or
+	 *         <code>null</code> if it also answers unprefixed ones
+	 */
+	String[] getPrefixes() {
+		return allowUnprefixedExpressions ? null : prefixes.clone();
+	}
+
+	private Accessors getAccessors() {
+		Accessors current = accessors;
+		if (current == null) {
+			List<String> list = Arrays.asList(prefixes);
+			current = shared != null ? shared.getAccessors(list, allowUnprefixedExpressions)
+					: new Accessors(list, allowUnprefixedExpressions);
+			accessors = current;
+		}
+		return current;
+	}
+
+	private boolean isPrefixed(String expression) {
+		for (String prefix : prefixes) {
+			if (expression.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Expressions compiled for one set of prefixes, whatever the root.
+	 */
+	static final class Accessors {
+		private final String[] prefixes;
+
+		private final boolean allowUnprefixedExpressions;
+
+		private final ConcurrentMap<String, Accessor> compiled = new ConcurrentHashMap<String, Accessor>();
+
+		Accessors(List<String> prefixes, boolean allowUnprefixedExpressions) {
+			this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+			this.allowUnprefixedExpressions = allowUnprefixedExpressions;
+		}
+
+		Accessor get(String expression) {
+			Accessor accessor = compiled.get(expression);
+			if (accessor == null) {
+				accessor = compile(expression);
+				Accessor existing = compiled.putIfAbsent(expression, accessor);
+				if (existing != null) {
+					accessor = existing;
+				}
+			}
+			return accessor;
+		}
+
+		/**
+		 * Same prefix handling as <code>ValueSourceUtils.trimPrefix</code>.
+		 */
+		private Accessor compile(String expression) {
+			String realExpr = null;
+			for (String prefix : prefixes) {
+				if (expression.startsWith(prefix)) {
+					realExpr = expression.substring(prefix.length());
+					if (realExpr.startsWith(".")) {
+						realExpr = realExpr.substring(1);
+					}
+					break;
+				}
+			}
+			if (realExpr == null && allowUnprefixedExpressions) {
+				realExpr = expression;
+			}
+			if (realExpr == null || realExpr.trim().length() < 1) {
+				return NOT_MINE;
+			}
+
+			StringTokenizer parser = new StringTokenizer(realExpr, ".");
+			List<Property> properties = new ArrayList<Property>();
+			while (parser.hasMoreTokens()) {
+				properties.add(new Property(parser.nextToken()));
+			}
+			return new Accessor(realExpr, properties.toArray(new Property[properties.size()]));
+		}
+	}
+
+	public Object getValue(String expression) {
+		if (expression == null || !allowUnprefixedExpressions && !isPrefixed(expression)) {
+			return null;
+		}
+		Accessor accessor = getAccessors().get(expression);
+		if (accessor == NOT_MINE) {
+			return null;
+		}
+		try {
+			return accessor.get(root);
+		} catch (Exception e) {
+			feedback.add("Failed to extract '" + accessor.expression + "' from: " + root);
+			feedback.add(e);
+			return null;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	public List getFeedback() {
+		synchronized (feedback) {
+			return new ArrayList<Object>(feedback);
+		}
+	}
+
+	public void clearFeedback() {
+		feedback.clear();
+	}
+
+	private static final class Accessor {
+		final String expression;
+
+		final Property[] properties;
+
+		Accessor(String expression, Property[] properties) {
+			this.expression = expression;
+			this.properties = properties;
+		}
+
+		Object get(Object root) throws Exception {
+			Object value = root;
+			for (Property property : properties) {
+				if (value == null) {
+					return null;
+				}
+				Method getter = property.getter(value.getClass());
+				if (getter == null) {
+					return null;
+				}
+				value = getter.invoke(value, NO_ARGS);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * One step of an expression, resolved through <code>getX()</code> or else
+	 * <code>isX()</code>.
+	 */
+	private static final class Property {
+		private final String getterName;
+
+		private final String isName;
+
+		private volatile Binding last;
+
+		Property(String name) {
+			String capitalized = Character.toTitleCase(name.charAt(0)) + name.substring(1);
+			getterName = "get" + capitalized;
+			isName = "is" + capitalized;
+		}
+
+		Method getter(Class<?> type) {
+			Binding binding = last;
+			if (binding == null || binding.type != type) {
+				Method method = publicMethod(type, getterName);
+				if (method == null) {
+					method = publicMethod(type, isName);
+				}
+				binding = new Binding(type, method);
+				last = binding;
+			}
+			return binding.method;
+		}
+	}
+
+	private static final class Binding {
+		final Class<?> type;
+
+		final Method method;
+
+		Binding(Class<?> type, Method method) {
+			this.type = type;
+			this.method = method;
+		}
+	}
+
+	/**
+	 * @return the public no argument method <code>name</code> of
+	 *         <code>type</code>, declared by a public class or interface so it
+	 *         can be invoked, or <code>null</code>
+	 */
+	private static Method publicMethod(Class<?> type, String name) {
+		Method method;
+		try {
+			method = type.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+		return accessible(method.getDeclaringClass(), name);
+	}
+
+	private static Method accessible(Class<?> type, String name) {
+		if (Modifier.isPublic(type.getModifiers())) {
+			try {
+				return type.getMethod(name);
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+		Class<?> superclass = type.getSuperclass();
+		if (superclass != null) {
+			Method method = accessible(superclass, name);
+			if (method != null) {
+				return method;
+			}
+		}
+		for (Class<?> implemented : type.getInterfaces()) {
+			Method method = accessible(implemented, name);
+			if (method != null) {
+				return method;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,333 @@
+package com.netease.maven.filtering;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.codehaus.plexus.interpolation.multi.DelimiterSpecification;
+
+/**
+ * Immutable set of delimiter specifications compiled into a first character
+ * dispatch table. {@link #find(CharSequence, int)} returns the earliest begin
+ * token, {@link #select(CharSequence, int)} the one the interpolator handles
+ * next; both look at every spec in a single pass over the input. At a given
+ * position the longest begin token wins, the last configured one on a tie.
+ * <p>
+ * Unlike {@link DelimiterSpecification} it keeps no scanning state, so one
+ * instance can be shared by any number of readers and interpolators.
+ */
+public final class DelimiterMatcher {
+
+	private static final int[] NO_SPECS = {};
+
+	private final String[] begins;
+
+	private final String[] ends;
+
+	/**
+	 * spec indexes ordered by begin token length descending, later specs first
+	 * on a tie
+	 */
+	private final int[] order;
+
+	/**
+	 * per ASCII first character, the candidate specs in match order
+	 */
+	private final int[][] byFirstChar = new int[128][];
+
+	private final boolean hasNonAsciiStart;
+
+	private DelimiterMatcher(List<DelimiterSpecification> specs) {
+		final int size = specs.size();
+		begins = new String[size];
+		ends = new String[size];
+		List<Integer> sorted = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			begins[i] = specs.get(i).getBegin();
+			ends[i] = specs.get(i).getEnd();
+			sorted.add(i);
+		}
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byLength = begins[b].length() - begins[a].length();
+				return byLength != 0 ? byLength : b - a;
+			}
+		});
+		order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = sorted.get(i);
+		}
+
+		boolean nonAscii = false;
+		for (char c = 0; c < byFirstChar.length; c++) {
+			byFirstChar[c] = candidates(c);
+		}
+		for (String begin : begins) {
+			nonAscii |= begin.charAt(0) >= byFirstChar.length;
+		}
+		hasNonAsciiStart = nonAscii;
+	}
+
+	/**
+	 * @param specs
+	 *            delimiter specs such as <code>${*}</code> or <code>@</code>,
+	 *            <code>null</code> entries are ignored
+	 * @return the compiled matcher
+	 */
+	public static DelimiterMatcher compile(Collection<String> specs) {
+		LinkedHashSet<DelimiterSpecification> parsed = new LinkedHashSet<DelimiterSpecification>();
+		for (String spec : specs) {
+			if (spec != null) {
+				parsed.add(DelimiterSpecification.parse(spec));
+			}
+		}
+		return new DelimiterMatcher(new ArrayList<DelimiterSpecification>(parsed));
+	}
+
+	/**
+	 * @param specs
+	 *            parsed delimiter specs, in configuration order
+	 * @return the compiled matcher
+	 */
+	public static DelimiterMatcher of(Collection<DelimiterSpecification> specs) {
+		return new DelimiterMatcher(new ArrayList<DelimiterSpecification>(specs));
+	}
+
+	private int[] candidates(char c) {
+		int count = 0;
+		for (int spec : order) {
+			if (begins[spec].charAt(0) == c) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return NO_SPECS;
+		}
+		int[] result = new int[count];
+		count = 0;
+		for (int spec : order) {
+			if (begins[spec].charAt(0) == c) {
+				result[count++] = spec;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param c
+	 *            a character
+	 * @return true if some begin token starts with <code>c</code>
+	 */
+	public boolean isStart(char c) {
+		if (c < byFirstChar.length) {
+			return byFirstChar[c].length > 0;
+		}
+		if (hasNonAsciiStart) {
+			for (String begin : begins) {
+				if (begin.charAt(0) == c) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param buf
+	 *            characters to match against
+	 * @param at
+	 *            position of the candidate begin token
+	 * @param limit
+	 *            end of the valid characters in <code>buf</code>
+	 * @return the index of the matching spec, or -1
+	 */
+	public int match(char[] buf, int at, int limit) {
+		if (at >= limit) {
+			return -1;
+		}
+		char c = buf[at];
+		int[] candidates = c < byFirstChar.length ? byFirstChar[c] : order;
+		for (int spec : candidates) {
+			String begin = begins[spec];
+			int length = begin.length();
+			if (at + length > limit) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && buf[at + i] == begin.charAt(i)) {
+				i++;
+			}
+			if (i == length) {
+				return spec;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Same as {@link #match(char[], int, int)} on the bytes of an ASCII
+	 * compatible encoding, for begin tokens made of ASCII characters only.
+	 *
+	 * @param buf
+	 *            bytes to match against
+	 * @param at
+	 *            position of the candidate begin token
+	 * @param limit
+	 *            end of the valid bytes in <code>buf</code>
+	 * @return the index of the matching spec, or -1
+	 */
+	public int match(byte[] buf, int at, int limit) {
+		if (at >= limit || buf[at] < 0) {
+			return -1;
+		}
+		for (int spec : byFirstChar[buf[at]]) {
+			String begin = begins[spec];
+			int length = begin.length();
+			if (at + length > limit) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && buf[at + i] == begin.charAt(i)) {
+				i++;
+			}
+			if (i == length) {
+				return spec;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param input
+	 *            text to match against
+	 * @param at
+	 *            position of the candidate begin token
+	 * @return the index of the matching spec, or -1
+	 */
+	public int match(CharSequence input, int at) {
+		if (at >= input.length()) {
+			return -1;
+		}
+		char c = input.charAt(at);
+		int[] candidates = c < byFirstChar.length ? byFirstChar[c] : order;
+		for (int spec : candidates) {
+			if (at + begins[spec].length() <= input.length() && startsWith(input, at, begins[spec])) {
+				return spec;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param input
+	 *            text to search
+	 * @param from
+	 *            position to start the search at
+	 * @return the earliest position at or after <code>from</code> where a
+	 *         begin token matches, or -1
+	 */
+	public int find(CharSequence input, int from) {
+		for (int i = Math.max(from, 0); i < input.length(); i++) {
+			if (isStart(input.charAt(i)) && match(input, i) > -1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Selects the expression to interpolate next the way the stock
+	 * multi-delimiter interpolator does: the first configured spec that occurs
+	 * anywhere after <code>from</code> wins, at its earliest position. All specs
+	 * are looked up in the same pass.
+	 *
+	 * @param input
+	 *            text to search
+	 * @param from
+	 *            position to start the search at
+	 * @return <code>-1</code> if nothing matches, otherwise the position in the
+	 *         high 32 bits and the spec index in the low 32 bits, see
+	 *         {@link #position(long)} and {@link #spec(long)}
+	 */
+	public long select(CharSequence input, int from) {
+		int best = Integer.MAX_VALUE;
+		int bestPosition = -1;
+		for (int i = Math.max(from, 0); i < input.length() && best > 0; i++) {
+			char c = input.charAt(i);
+			if (!isStart(c)) {
+				continue;
+			}
+			int[] candidates = c < byFirstChar.length ? byFirstChar[c] : order;
+			for (int spec : candidates) {
+				if (spec < best && input.length() - i >= begins[spec].length()
+						&& startsWith(input, i, begins[spec])) {
+					best = spec;
+					bestPosition = i;
+				}
+			}
+		}
+		return bestPosition == -1 ? -1 : ((long) bestPosition << 32) | best;
+	}
+
+	/**
+	 * @param selection
+	 *            result of {@link #select(CharSequence, int)}
+	 * @return the position of the selected begin token
+	 */
+	public static int position(long selection) {
+		return (int) (selection >>> 32);
+	}
+
+	/**
+	 * @param selection
+	 *            result of {@link #select(CharSequence, int)}
+	 * @return the index of the selected spec
+	 */
+	public static int spec(long selection) {
+		return (int) selection;
+	}
+
+	private static boolean startsWith(CharSequence input, int at, String token) {
+		for (int i = 0; i < token.length(); i++) {
+			if (input.charAt(at + i) != token.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of compiled specs
+	 */
+	public int size() {
+		return begins.length;
+	}
+
+	/**
+	 * @param spec
+	 *            spec index as returned by the match methods
+	 * @return its begin token
+	 */
+	public String getBegin(int spec) {
+		return begins[spec];
+	}
+
+	/**
+	 * @param spec
+	 *            spec index as returned by the match methods
+	 * @return its end token
+	 */
+	public String getEnd(int spec) {
+		return ends[spec];
+	}
+
+	/**
+	 * @return the length of the longest begin token
+	 */
+	public int getMaxBeginLength() {
+		return order.length == 0 ? 0 : begins[order[0]].length();
+	}
+}
@@ -0,0 +1,106 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.netease.maven.filtering.FilteringEnhancer.EnhencerWrappers;
+
+/**
+ * Filters the relative file names of one execution. Names without a character
+ * that may start an expression or the escape string are returned as they are,
+ * and the filtered form of every directory is kept, so the files of a
+ * directory only filter their own name.
+ * <p>
+ * A directory is only filtered on its own if each of its expressions closes
+ * within its segment, the result is then the same as for the whole name. Not
+ * thread safe, names are resolved by the thread scanning the resources.
+ */
+final class FileNameFilter {
+
+	private final EnhencerWrappers wrapper;
+
+	/**
+	 * false if a delimiter or the escape string holds a separator, names are
+	 * then filtered as a whole
+	 */
+	private final boolean segmented;
+
+	/**
+	 * directory with its trailing separator to its filtered form,
+	 * <code>null</code> if it cannot be filtered on its own
+	 */
+	private final Map<String, String> directories = new HashMap<String, String>();
+
+	FileNameFilter(EnhencerWrappers wrapper) {
+		this.wrapper = wrapper;
+		DelimiterMatcher matcher = wrapper.getDelimiterMatcher();
+		boolean segmented = !hasSeparator(wrapper.getEscapeString());
+		for (int spec = 0; spec < matcher.size(); spec++) {
+			segmented &= !hasSeparator(matcher.getBegin(spec)) && !hasSeparator(matcher.getEnd(spec));
+		}
+		this.segmented = segmented;
+	}
+
+	private static boolean hasSeparator(String token) {
+		return token != null && (token.indexOf('/') > -1 || token.indexOf(File.separatorChar) > -1);
+	}
+
+	private static int lastSeparator(String name, int from) {
+		return Math.max(name.lastIndexOf('/', from), name.lastIndexOf(File.separatorChar, from));
+	}
+
+	String filter(String name) throws IOException {
+		if (!wrapper.hasCandidate(name)) {
+			return name;
+		}
+		int cut = lastSeparator(name, name.length() - 1);
+		if (segmented && cut > -1) {
+			String directory = filterDirectory(name.substring(0, cut + 1));
+			if (directory != null) {
+				return directory + wrapper.filter(name.substring(cut + 1));
+			}
+		}
+		return wrapper.filter(name);
+	}
+
+	/**
+	 * @return the filtered directory, or <code>null</code> if an expression
+	 *         may span its segments
+	 */
+	private String filterDirectory(String directory) throws IOException {
+		if (directories.containsKey(directory)) {
+			return directories.get(directory);
+		}
+		int cut = lastSeparator(directory, directory.length() - 2);
+		String parent = cut > -1 ? filterDirectory(directory.substring(0, cut + 1)) : "";
+		String segment = directory.substring(cut + 1);
+		String filtered = null;
+		if (parent != null && isSelfContained(segment)) {
+			filtered = parent + wrapper.filter(segment);
+		}
+		directories.put(directory, filtered);
+		return filtered;
+	}
+
+	/**
+	 * @return true if every begin token in <code>segment</code> is followed by
+	 *         its end token within it; defaults, whose expressions nest, are
+	 *         not looked into
+	 */
+	private boolean isSelfContained(String segment) {
+		DelimiterMatcher matcher = wrapper.getDelimiterMatcher();
+		for (int i = 0; i < segment.length(); i++) {
+			int spec = matcher.match(segment, i);
+			if (spec == -1) {
+				continue;
+			}
+			if (segment.indexOf('?') > -1
+					|| segment.indexOf(matcher.getEnd(spec), i + matcher.getBegin(spec).length()) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
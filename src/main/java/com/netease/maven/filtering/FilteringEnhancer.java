@@ -1,15 +1,24 @@
 package com.netease.maven.filtering;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.maven.execution.MavenSession;
@@ -24,7 +33,6 @@ import org.apache.maven.shared.filtering.MavenFileFilterRequest;
 import org.apache.maven.shared.filtering.MavenFilteringException;
 import org.apache.maven.shared.filtering.MavenResourcesExecution;
 import org.apache.maven.shared.filtering.MavenResourcesFiltering;
-import org.apache.maven.shared.filtering.PropertyUtils;
 import org.apache.maven.shared.utils.PathTool;
 import org.apache.maven.shared.utils.StringUtils;
 import org.apache.maven.shared.utils.io.FileUtils;
@@ -32,11 +40,9 @@ import org.apache.maven.shared.utils.io.FileUtils.FilterWrapper;
 import org.apache.maven.shared.utils.io.IOUtil;
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
+import org.codehaus.plexus.interpolation.InterpolationException;
 import org.codehaus.plexus.interpolation.InterpolationPostProcessor;
-import org.codehaus.plexus.interpolation.Interpolator;
 import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
-import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
-import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
 import org.codehaus.plexus.interpolation.RecursionInterceptor;
 import org.codehaus.plexus.interpolation.SimpleRecursionInterceptor;
 import org.codehaus.plexus.interpolation.SingleResponseValueSource;
@@ -57,7 +63,8 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 	private MavenFileFilter mavenFileFilter;
 
 	/** {@inheritDoc} */
-	public void filterResources(MavenResourcesExecution mavenResourcesExecution) throws MavenFilteringException {
+	public void filterResources(final MavenResourcesExecution mavenResourcesExecution)
+			throws MavenFilteringException {
 		this.getLogger().info("");
 		this.getLogger().info("======begin enhancer filtering=======");
 		if (mavenResourcesExecution == null) {
@@ -76,8 +83,43 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 		if (mavenResourcesExecution.isUseDefaultFilterWrappers()) {
 			handleDefaultFilterWrappers(mavenResourcesExecution);
 		}
+
+		FilteringEnhancerOptions options = FilteringEnhancerOptions.of(mavenResourcesExecution);
+		boolean pipeline = options.getBoolean(FilteringEnhancerOptions.PIPELINE, false)
+				&& isEnhancerOnly(mavenResourcesExecution.getFilterWrappers());
+		ParallelFileFilter parallelFileFilter = null;
+		PipelinedFileFilter pipelinedFileFilter = null;
+		if (options.getThreads() > 1 || pipeline) {
+			if (buildContext.isIncremental()) {
+				getLogger().debug("incremental build context, filtering resources sequentially");
+			} else if (pipeline) {
+				pipelinedFileFilter = new PipelinedFileFilter(options.getThreads(), options.getMaxInFlightBytes());
+			} else {
+				parallelFileFilter = new ParallelFileFilter(options.getThreads(), options.getMaxInFlightBytes());
+			}
+		}
+
+		final FilteringManifest manifest = loadManifest(mavenResourcesExecution, options);
+		final boolean splice = options.getBoolean(FilteringEnhancerOptions.SPLICE, true)
+				&& isEnhancerOnly(mavenResourcesExecution.getFilterWrappers());
+		final FilteringMetrics metrics = options.getBoolean(FilteringEnhancerOptions.METRICS, false)
+				? new FilteringMetrics() : null;
+		setMetrics(mavenResourcesExecution.getFilterWrappers(), metrics);
+		final FileNameFilter fileNameFilter = mavenResourcesExecution.isFilterFilenames()
+				&& isEnhancerOnly(mavenResourcesExecution.getFilterWrappers())
+						? new FileNameFilter((EnhencerWrappers) mavenResourcesExecution.getFilterWrappers().get(0))
+						: null;
+		final OutputFiles outputFiles = new OutputFiles();
+		final ResourceCopier resourceCopier = options.getBoolean(FilteringEnhancerOptions.COPY_UNFILTERED, false)
+				? new ResourceCopier(options.getCopyMode()) : null;
+		if (resourceCopier != null && resourceCopier.isHardlink()) {
+			getLogger().warn("Unfiltered resources are hard links to their sources, a tool changing them in place"
+					+ " changes the sources too (" + FilteringEnhancerOptions.COPY_MODE + "=" + ResourceCopier.HARDLINK
+					+ ")");
+		}
+
 		for (Resource resource : mavenResourcesExecution.getResources()) {
-			if (!resource.isFiltering()) {
+			if (!resource.isFiltering() && resourceCopier == null) {
 				continue;
 			}
 
@@ -94,6 +136,7 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 				getLogger().info("skip non existing resourceDirectory " + resourceDirectory.getPath());
 				continue;
 			}
+			final int directory = metrics != null ? metrics.directoryStarted(resourceDirectory) : -1;
 
 			// this part is required in case the user specified "../something"
 			// as destination
@@ -104,113 +147,625 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 				throw new MavenFilteringException("Cannot create resource output directory: " + outputDirectory);
 			}
 
-			boolean ignoreDelta = !outputExists || buildContext.hasDelta(mavenResourcesExecution.getFileFilters())
-					|| buildContext.hasDelta(getRelativeOutputDirectory(mavenResourcesExecution));
-			getLogger().debug("ignoreDelta " + ignoreDelta);
-			Scanner scanner = buildContext.newScanner(resourceDirectory, ignoreDelta);
-
-			setupScanner(resource, scanner, mavenResourcesExecution.isAddDefaultExcludes());
-
-			scanner.scan();
-
+			File layoutDirectory = null;
 			if (mavenResourcesExecution.isIncludeEmptyDirs()) {
+				layoutDirectory = targetPath == null ? outputDirectory : new File(outputDirectory, targetPath);
 				try {
-					File targetDirectory = targetPath == null ? outputDirectory : new File(outputDirectory, targetPath);
-					copyDirectoryLayout(resourceDirectory, targetDirectory, scanner);
+					checkDirectoryLayout(resourceDirectory, layoutDirectory);
 				} catch (IOException e) {
 					throw new MavenFilteringException("Cannot copy directory structure from "
 							+ resourceDirectory.getPath() + " to " + outputDirectory.getPath());
 				}
 			}
 
-			List<String> includedFiles = Arrays.asList(scanner.getIncludedFiles());
+			IncludedFiles includedFiles = new IncludedFiles(resource, resourceDirectory, outputDirectory,
+					layoutDirectory, mavenResourcesExecution, fileNameFilter, outputFiles, resourceCopier != null);
+			String[] includes = getIncludes(resource);
+			String[] excludes = getExcludes(resource);
+			Scanner scanner = null;
+			if (buildContext.isIncremental()) {
+				boolean ignoreDelta = !outputExists
+						|| buildContext.hasDelta(mavenResourcesExecution.getFileFilters())
+						|| buildContext.hasDelta(getRelativeOutputDirectory(mavenResourcesExecution));
+				getLogger().debug("ignoreDelta " + ignoreDelta);
+				scanner = buildContext.newScanner(resourceDirectory, ignoreDelta);
+				setupScanner(includes, excludes, scanner, mavenResourcesExecution.isAddDefaultExcludes());
+				scanner.scan();
+				if (layoutDirectory != null) {
+					for (String name : scanner.getIncludedDirectories()) {
+						includedFiles.directory(name);
+					}
+				}
+				for (String name : scanner.getIncludedFiles()) {
+					includedFiles.file(name, new File(resourceDirectory, name));
+				}
+			} else {
+				// the delete scanner of a non incremental context is empty,
+				// one walk selects everything
+				new ResourceScanner(includes, excludes, mavenResourcesExecution.isAddDefaultExcludes())
+						.scan(resourceDirectory, includedFiles);
+			}
+
+			getLogger().info("Copying enhancer " + includedFiles.count + " resource"
+					+ (includedFiles.count > 1 ? "s" : "") + (targetPath == null ? "" : " to " + targetPath));
+
+			List<File> sources = includedFiles.sources;
+			List<File> destinations = includedFiles.destinations;
+			List<File> unfilteredSources = includedFiles.unfilteredSources;
+			List<File> unfilteredDestinations = includedFiles.unfilteredDestinations;
+
+			if (pipelinedFileFilter != null && sources.size() > 1) {
+				pipelinedFileFilter.copy(sources, destinations, new PipelineStages(mavenResourcesExecution, manifest,
+						splice, metrics, directory, options.getMaxInFlightBytes()));
+			} else if (parallelFileFilter != null && sources.size() > 1) {
+				parallelFileFilter.copy(sources, destinations, new ParallelFileFilter.Copy() {
+					public void copy(File from, File to) throws MavenFilteringException {
+						copyFile(from, to, mavenResourcesExecution, manifest, splice, metrics, directory);
+					}
+				});
+			} else {
+				for (int i = 0; i < sources.size(); i++) {
+					copyFile(sources.get(i), destinations.get(i), mavenResourcesExecution, manifest, splice, metrics,
+							directory);
+				}
+			}
+
+			for (int i = 0; i < unfilteredSources.size(); i++) {
+				copyUnfiltered(unfilteredSources.get(i), unfilteredDestinations.get(i), resourceCopier,
+						mavenResourcesExecution.isOverwrite());
+			}
 
-			getLogger().info("Copying enhancer " + includedFiles.size() + " resource"
-					+ (includedFiles.size() > 1 ? "s" : "") + (targetPath == null ? "" : " to " + targetPath));
+			// deal with deleted source files
 
-			for (String name : includedFiles) {
-				getLogger().debug("Copying file " + name);
-				File source = new File(resourceDirectory, name);
+			if (scanner != null) {
+				scanner = buildContext.newDeleteScanner(resourceDirectory);
 
-				File destinationFile = getDestinationFile(outputDirectory, targetPath, name, mavenResourcesExecution);
-				boolean filteredExt = filteredFileExtension(source.getName(),
-						mavenResourcesExecution.getNonFilteredFileExtensions());
-				if (!filteredExt) {
-					continue;
+				setupScanner(includes, excludes, scanner, mavenResourcesExecution.isAddDefaultExcludes());
+
+				scanner.scan();
+
+				for (String name : scanner.getIncludedFiles()) {
+					File destinationFile = getDestinationFile(outputDirectory, targetPath, name,
+							mavenResourcesExecution, fileNameFilter, outputFiles);
+
+					destinationFile.delete();
+
+					buildContext.refresh(destinationFile);
 				}
-				mavenFileFilter.copyFile(source, destinationFile, true, mavenResourcesExecution.getFilterWrappers(),
-						mavenResourcesExecution.getEncoding(), mavenResourcesExecution.isOverwrite());
 			}
 
-			// deal with deleted source files
+			if (metrics != null) {
+				metrics.directoryFinished(directory);
+			}
+		}
+
+		if (manifest != null) {
+			try {
+				manifest.store();
+			} catch (IOException e) {
+				getLogger().warn("Cannot write filtering manifest: " + e.getMessage());
+			}
+		}
+
+		if (metrics != null) {
+			reportMetrics(mavenResourcesExecution, metrics);
+		}
+	}
+
+	/**
+	 * The manifest is only used when the enhancer wrapper is the single filter
+	 * wrapper, the effect of any other wrapper on the output is unknown.
+	 */
+	private FilteringManifest loadManifest(MavenResourcesExecution mavenResourcesExecution,
+			FilteringEnhancerOptions options) throws MavenFilteringException {
+		List<FilterWrapper> wrappers = mavenResourcesExecution.getFilterWrappers();
+		MavenProject project = mavenResourcesExecution.getMavenProject();
+		if (!options.getBoolean(FilteringEnhancerOptions.INCREMENTAL, false) || mavenResourcesExecution.isOverwrite()
+				|| project == null || project.getBuild().getDirectory() == null || !isEnhancerOnly(wrappers)) {
+			return null;
+		}
+
+		File outputDirectory = mavenResourcesExecution.getOutputDirectory().getAbsoluteFile();
+		File file = new File(project.getBuild().getDirectory(), "filtering-enhancer/" + outputDirectory.getName() + "-"
+				+ executionId(mavenResourcesExecution) + ".manifest");
+
+		StringBuilder config = new StringBuilder();
+		config.append(mavenResourcesExecution.getDelimiters()).append('\n');
+		config.append(mavenResourcesExecution.getEscapeString()).append('\n');
+		config.append(mavenResourcesExecution.getEncoding()).append('\n');
+		config.append(mavenResourcesExecution.isEscapeWindowsPaths()).append('\n');
+		config.append(mavenResourcesExecution.isSupportMultiLineFiltering());
+		config.append('\n').append(options.getLookahead());
+		return FilteringManifest.load(file, FilteringManifest.hash(config.toString()));
+	}
+
+	/**
+	 * @return hash of the output directory and the resources of the
+	 *         execution, executions writing to the same directory keep
+	 *         their own files
+	 */
+	private static String executionId(MavenResourcesExecution mavenResourcesExecution) {
+		StringBuilder id = new StringBuilder(mavenResourcesExecution.getOutputDirectory().getAbsolutePath());
+		for (Resource resource : mavenResourcesExecution.getResources()) {
+			id.append('\n').append(resource.getDirectory());
+			id.append('\n').append(resource.getTargetPath());
+			id.append('\n').append(resource.isFiltering());
+			id.append('\n').append(resource.getIncludes());
+			id.append('\n').append(resource.getExcludes());
+		}
+		return FilteringManifest.hash(id.toString()).substring(0, 8);
+	}
+
+	private static void setMetrics(List<FilterWrapper> wrappers, FilteringMetrics metrics) {
+		if (wrappers != null) {
+			for (FilterWrapper wrapper : wrappers) {
+				if (wrapper instanceof EnhencerWrappers) {
+					((EnhencerWrappers) wrapper).setMetrics(metrics);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the metrics next to the manifests, see
+	 * {@link FilteringEnhancerOptions#METRICS}.
+	 */
+	private void reportMetrics(MavenResourcesExecution mavenResourcesExecution, FilteringMetrics metrics) {
+		setMetrics(mavenResourcesExecution.getFilterWrappers(), null);
+		String summary = metrics.summary();
+		MavenProject project = mavenResourcesExecution.getMavenProject();
+		if (project == null || project.getBuild().getDirectory() == null) {
+			getLogger().info(summary);
+			return;
+		}
+		File outputDirectory = mavenResourcesExecution.getOutputDirectory().getAbsoluteFile();
+		File file = new File(project.getBuild().getDirectory(), "filtering-enhancer/" + outputDirectory.getName() + "-"
+				+ executionId(mavenResourcesExecution) + "-metrics.json");
+		try {
+			metrics.write(file, outputDirectory);
+			getLogger().info(summary + ", details in " + file.getPath());
+		} catch (IOException e) {
+			getLogger().info(summary);
+			getLogger().warn("Cannot write filtering metrics: " + e.getMessage());
+		}
+	}
+
+	private static boolean isEnhancerOnly(List<FilterWrapper> wrappers) {
+		return wrappers != null && wrappers.size() == 1 && wrappers.get(0) instanceof EnhencerWrappers;
+	}
 
-			scanner = buildContext.newDeleteScanner(resourceDirectory);
+	private void copyFile(File source, File destinationFile, MavenResourcesExecution mavenResourcesExecution,
+			FilteringManifest manifest, boolean splice, FilteringMetrics metrics, int directory)
+			throws MavenFilteringException {
+		if (metrics == null) {
+			copyFile(source, destinationFile, mavenResourcesExecution, manifest, splice, null);
+			return;
+		}
+		long started = System.nanoTime();
+		copyFile(source, destinationFile, mavenResourcesExecution, manifest, splice, metrics);
+		metrics.fileFiltered(directory, source, destinationFile, System.nanoTime() - started);
+	}
 
-			setupScanner(resource, scanner, mavenResourcesExecution.isAddDefaultExcludes());
+	private void copyFile(File source, File destinationFile, MavenResourcesExecution mavenResourcesExecution,
+			FilteringManifest manifest, boolean splice, FilteringMetrics metrics) throws MavenFilteringException {
+		if (!isEnhancerOnly(mavenResourcesExecution.getFilterWrappers())) {
+			try {
+				// the file filter writes in place
+				OutputFiles.breakLink(source, destinationFile);
+			} catch (IOException e) {
+				throw new MavenFilteringException(e.getMessage(), e);
+			}
+			mavenFileFilter.copyFile(source, destinationFile, true, mavenResourcesExecution.getFilterWrappers(),
+					mavenResourcesExecution.getEncoding(), mavenResourcesExecution.isOverwrite());
+			return;
+		}
 
-			scanner.scan();
+		EnhencerWrappers wrapper = (EnhencerWrappers) mavenResourcesExecution.getFilterWrappers().get(0);
+		if (manifest == null) {
+			try {
+				filterFile(source, destinationFile, mavenResourcesExecution.getEncoding(), wrapper,
+						metrics != null ? metrics.countTokens(null) : null, splice);
+			} catch (IOException e) {
+				throw new MavenFilteringException(e.getMessage(), e);
+			}
+			return;
+		}
 
-			List<String> deletedFiles = Arrays.asList(scanner.getIncludedFiles());
+		String path = destinationFile.getAbsolutePath();
+		FilteringManifest.Entry previous = manifest.getPrevious(path);
+		long sourceLength = source.length();
+		long sourceModified = source.lastModified();
+		try {
+			String sourceHash;
+			if (previous != null && previous.isSourceUntouched(sourceLength, sourceModified)) {
+				sourceHash = previous.sourceHash;
+			} else {
+				sourceHash = FilteringManifest.hash(source);
+			}
 
-			for (String name : deletedFiles) {
-				File destinationFile = getDestinationFile(outputDirectory, targetPath, name, mavenResourcesExecution);
+			if (isKept(manifest, previous, sourceHash, source, destinationFile, wrapper)) {
+				manifest.put(path, previous);
+				return;
+			}
 
-				destinationFile.delete();
+			FilteringManifest.Recorder recorder = new FilteringManifest.Recorder();
+			filterFile(source, destinationFile, mavenResourcesExecution.getEncoding(), wrapper,
+					metrics != null ? metrics.countTokens(recorder) : recorder, splice);
+			manifest.put(path, new FilteringManifest.Entry(sourceHash, sourceLength, sourceModified,
+					manifest.getConfig(), destinationFile.length(), destinationFile.lastModified(),
+					recorder.getTokens()));
+		} catch (IOException e) {
+			throw new MavenFilteringException(e.getMessage(), e);
+		}
+	}
 
+	private void copyUnfiltered(File source, File destinationFile, ResourceCopier resourceCopier, boolean overwrite)
+			throws MavenFilteringException {
+		try {
+			if (resourceCopier.copy(source, destinationFile, overwrite)) {
+				getLogger().debug("copied " + source.getPath() + " to " + destinationFile.getPath());
 				buildContext.refresh(destinationFile);
 			}
+		} catch (IOException e) {
+			throw new MavenFilteringException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return true if <code>previous</code> still describes the output, which
+	 *         is then kept as it is
+	 */
+	private boolean isKept(FilteringManifest manifest, FilteringManifest.Entry previous, String sourceHash,
+			File source, File destinationFile, EnhencerWrappers wrapper) {
+		if (previous != null && previous.isUpToDate(sourceHash, manifest.getConfig(), destinationFile)
+				&& isResolvedAlike(previous, wrapper)) {
+			if (getLogger().isDebugEnabled()) {
+				getLogger().debug("unchanged " + source.getPath() + ", keeping " + destinationFile.getPath());
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every token recorded for the file still resolves to the
+	 *         same value
+	 */
+	private boolean isResolvedAlike(FilteringManifest.Entry entry, EnhencerWrappers wrapper) {
+		for (Map.Entry<String, String> token : entry.tokens.entrySet()) {
+			try {
+				if (!FilteringManifest.hash(wrapper.resolve(token.getKey())).equals(token.getValue())) {
+					return false;
+				}
+			} catch (InterpolationException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as the filtering copy of {@link MavenFileFilter}, with the enhancer
+	 * reader reporting the tokens it resolved and, if <code>splice</code> is
+	 * set, the text between expressions copied by {@link LiteralSplicer}. The
+	 * output goes through {@link OutputFiles#replace(File, File)}, an
+	 * unchanged destination is not touched.
+	 */
+	private void filterFile(File from, File to, String encoding, EnhencerWrappers wrapper,
+			TokenListener tokenListener, boolean splice) throws IOException {
+		getLogger().debug("filtering " + from.getPath() + " to " + to.getPath());
+		File temporary = OutputFiles.createTemporary(to);
+		try {
+			LiteralSplicer splicer = splice ? wrapper.getSplicer(encoding) : null;
+			if (splicer == null || !splicer.filter(from, temporary, wrapper, tokenListener,
+					wrapper.getLookaheadListener(from.getPath()))) {
+				filterFile(from, temporary, encoding, wrapper, tokenListener);
+			}
+			if (OutputFiles.replace(temporary, to)) {
+				buildContext.refresh(to);
+			} else if (getLogger().isDebugEnabled()) {
+				getLogger().debug("identical output, keeping " + to.getPath());
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private void filterFile(File from, File to, String encoding, EnhencerWrappers wrapper,
+			TokenListener tokenListener) throws IOException {
+		InputStream instream = null;
+		OutputStream outstream = null;
+		try {
+			instream = new FileInputStream(from);
+			outstream = new FileOutputStream(to);
+			filter(instream, outstream, encoding, wrapper, tokenListener, from.getPath());
+			outstream = null;
+		} finally {
+			IOUtil.close(instream);
+			IOUtil.close(outstream);
+		}
+	}
+
+	/**
+	 * Filters <code>instream</code> into <code>outstream</code> and closes the
+	 * latter.
+	 */
+	private static void filter(InputStream instream, OutputStream outstream, String encoding,
+			EnhencerWrappers wrapper, TokenListener tokenListener, String source) throws IOException {
+		Reader fileReader = StringUtils.isEmpty(encoding) ? new InputStreamReader(instream)
+				: new InputStreamReader(instream, encoding);
+		Writer fileWriter = StringUtils.isEmpty(encoding) ? new OutputStreamWriter(outstream)
+				: new OutputStreamWriter(outstream, encoding);
+
+		IOUtil.copy(wrapper.getReader(fileReader, tokenListener, source), fileWriter);
+		fileWriter.close();
+	}
+
+	/**
+	 * Sorts the files selected in a resource directory into those to filter
+	 * and those to copy, and creates the selected directories if empty
+	 * directories are included.
+	 */
+	private final class IncludedFiles implements ResourceScanner.Visitor {
+		final List<File> sources = new ArrayList<File>();
+
+		final List<File> destinations = new ArrayList<File>();
+
+		final List<File> unfilteredSources = new ArrayList<File>();
+
+		final List<File> unfilteredDestinations = new ArrayList<File>();
+
+		int count;
+
+		private final Resource resource;
+
+		private final File resourceDirectory;
+
+		private final File outputDirectory;
+
+		/**
+		 * where the directory layout is copied to, <code>null</code> if empty
+		 * directories are not included
+		 */
+		private final File layoutDirectory;
+
+		private final MavenResourcesExecution mavenResourcesExecution;
+
+		private final FileNameFilter fileNameFilter;
+
+		private final OutputFiles outputFiles;
+
+		private final boolean copyUnfiltered;
+
+		IncludedFiles(Resource resource, File resourceDirectory, File outputDirectory, File layoutDirectory,
+				MavenResourcesExecution mavenResourcesExecution, FileNameFilter fileNameFilter,
+				OutputFiles outputFiles, boolean copyUnfiltered) {
+			this.resource = resource;
+			this.resourceDirectory = resourceDirectory;
+			this.outputDirectory = outputDirectory;
+			this.layoutDirectory = layoutDirectory;
+			this.mavenResourcesExecution = mavenResourcesExecution;
+			this.fileNameFilter = fileNameFilter;
+			this.outputFiles = outputFiles;
+			this.copyUnfiltered = copyUnfiltered;
+		}
+
+		public void directory(String name) {
+			if (layoutDirectory != null && !new File(resourceDirectory, name).equals(resourceDirectory)) {
+				new File(layoutDirectory, name).mkdirs();
+			}
+		}
+
+		public void file(String name, File source) throws MavenFilteringException {
+			count++;
+			getLogger().debug("Copying file " + name);
+
+			File destinationFile = getDestinationFile(outputDirectory, resource.getTargetPath(), name,
+					mavenResourcesExecution, fileNameFilter, outputFiles);
+			boolean filteredExt = resource.isFiltering() && filteredFileExtension(source.getName(),
+					mavenResourcesExecution.getNonFilteredFileExtensions());
+			if (!filteredExt) {
+				if (copyUnfiltered) {
+					unfilteredSources.add(source);
+					unfilteredDestinations.add(destinationFile);
+				}
+				return;
+			}
+			sources.add(source);
+			destinations.add(destinationFile);
+		}
+	}
+
+	/**
+	 * A file going through {@link PipelineStages}.
+	 */
+	private static final class PipelinedFile {
+		final long started = System.nanoTime();
+
+		final long length;
+
+		final long modified;
+
+		/**
+		 * the source, <code>null</code> if it is too large to be held in
+		 * memory
+		 */
+		byte[] content;
+
+		byte[] output;
+
+		String sourceHash;
+
+		FilteringManifest.Recorder recorder;
+
+		PipelinedFile(File source) {
+			length = source.length();
+			modified = source.lastModified();
+		}
+	}
+
+	/**
+	 * Stages of {@link PipelinedFileFilter} for the enhancer wrapper. Sources
+	 * up to the in-flight bound are read and filtered in memory, the others
+	 * are copied like in the sequential mode by the filter stage.
+	 */
+	private final class PipelineStages implements PipelinedFileFilter.Stages<PipelinedFile, PipelinedFile> {
+		private final MavenResourcesExecution mavenResourcesExecution;
+
+		private final EnhencerWrappers wrapper;
+
+		private final FilteringManifest manifest;
+
+		private final boolean splice;
+
+		private final FilteringMetrics metrics;
+
+		private final int directory;
+
+		private final long maxContentLength;
+
+		PipelineStages(MavenResourcesExecution mavenResourcesExecution, FilteringManifest manifest, boolean splice,
+				FilteringMetrics metrics, int directory, long maxContentLength) {
+			this.mavenResourcesExecution = mavenResourcesExecution;
+			this.wrapper = (EnhencerWrappers) mavenResourcesExecution.getFilterWrappers().get(0);
+			this.manifest = manifest;
+			this.splice = splice;
+			this.metrics = metrics;
+			this.directory = directory;
+			this.maxContentLength = Math.min(maxContentLength, Integer.MAX_VALUE - 8);
+		}
+
+		public PipelinedFile read(File from) throws IOException {
+			PipelinedFile file = new PipelinedFile(from);
+			if (file.length <= maxContentLength) {
+				InputStream instream = new FileInputStream(from);
+				try {
+					file.content = IOUtil.toByteArray(instream);
+				} finally {
+					IOUtil.close(instream);
+				}
+			}
+			return file;
+		}
+
+		public PipelinedFile filter(File from, File to, PipelinedFile file)
+				throws IOException, MavenFilteringException {
+			if (file.content == null) {
+				copyFile(from, to, mavenResourcesExecution, manifest, splice, metrics, directory);
+				return null;
+			}
+			TokenListener tokenListener = metrics != null ? metrics.countTokens(null) : null;
+			if (manifest != null) {
+				FilteringManifest.Entry previous = manifest.getPrevious(to.getAbsolutePath());
+				if (previous != null && previous.isSourceUntouched(file.length, file.modified)) {
+					file.sourceHash = previous.sourceHash;
+				} else {
+					file.sourceHash = FilteringManifest.hash(file.content);
+				}
+				if (isKept(manifest, previous, file.sourceHash, from, to, wrapper)) {
+					manifest.put(to.getAbsolutePath(), previous);
+					done(from, to, file);
+					return null;
+				}
+				file.recorder = new FilteringManifest.Recorder();
+				tokenListener = metrics != null ? metrics.countTokens(file.recorder) : file.recorder;
+			}
+			getLogger().debug("filtering " + from.getPath() + " to " + to.getPath());
+			ByteArrayOutputStream outstream = new ByteArrayOutputStream(file.content.length + 64);
+			FilteringEnhancer.filter(new ByteArrayInputStream(file.content), outstream,
+					mavenResourcesExecution.getEncoding(), wrapper, tokenListener, from.getPath());
+			file.content = null;
+			file.output = outstream.toByteArray();
+			return file;
+		}
 
+		public void write(File from, File to, PipelinedFile file) throws IOException {
+			if (OutputFiles.replace(file.output, to)) {
+				buildContext.refresh(to);
+			} else if (getLogger().isDebugEnabled()) {
+				getLogger().debug("identical output, keeping " + to.getPath());
+			}
+			if (manifest != null) {
+				manifest.put(to.getAbsolutePath(),
+						new FilteringManifest.Entry(file.sourceHash, file.length, file.modified, manifest.getConfig(),
+								to.length(), to.lastModified(), file.recorder.getTokens()));
+			}
+			done(from, to, file);
+		}
+
+		private void done(File from, File to, PipelinedFile file) {
+			if (metrics != null) {
+				metrics.fileFiltered(directory, from, to, System.nanoTime() - file.started);
+			}
 		}
 	}
 
+	/**
+	 * Creates a fresh reader per file around one interpolator shared by the
+	 * whole execution, so an expression is resolved once however many files
+	 * use it. Everything shared is immutable or thread safe, files may be
+	 * filtered in parallel.
+	 */
 	public class EnhencerWrappers extends FilterWrapper {
-		private LinkedHashSet<String> delimiters;
+		private final LinkedHashSet<String> delimiters;
 
-		private MavenProject project;
+		private final DelimiterMatcher delimiterMatcher;
 
-		private ValueSource propertiesValueSource;
+		private final FilteringEnhancerInterpolator interpolator;
 
-		private List<String> projectStartExpressions;
+		private final List<String> projectStartExpressions;
 
-		private String escapeString;
+		private final String escapeString;
 
-		private boolean escapeWindowsPaths;
+		private final boolean supportMultiLineFiltering;
 
-		private final MavenSession mavenSession;
+		private final int lookahead;
 
-		private boolean supportMultiLineFiltering;
+		private final boolean failOnLookahead;
 
 		EnhencerWrappers(LinkedHashSet<String> delimiters, MavenProject project, MavenSession mavenSession,
 				ValueSource propertiesValueSource, List<String> projectStartExpressions, String escapeString,
-				boolean escapeWindowsPaths, boolean supportMultiLineFiltering) {
+				boolean escapeWindowsPaths, boolean supportMultiLineFiltering, int lookahead, boolean failOnLookahead) {
 			super();
+			SharedFilteringState shared = SharedFilteringState.of(mavenSession);
 			this.delimiters = delimiters;
-			this.project = project;
-			this.mavenSession = mavenSession;
-			this.propertiesValueSource = propertiesValueSource;
+			this.delimiterMatcher = shared != null ? shared.getDelimiterMatcher(delimiters)
+					: DelimiterMatcher.compile(delimiters);
+			this.interpolator = createInterpolator(delimiters, delimiterMatcher, projectStartExpressions,
+					propertiesValueSource, project, mavenSession, escapeString, escapeWindowsPaths, shared);
+			this.interpolator.setCacheAnswers(true);
 			this.projectStartExpressions = projectStartExpressions;
 			this.escapeString = escapeString;
-			this.escapeWindowsPaths = escapeWindowsPaths;
 			this.supportMultiLineFiltering = supportMultiLineFiltering;
+			this.lookahead = lookahead;
+			this.failOnLookahead = failOnLookahead;
 		}
 
 		@Override
 		public Reader getReader(Reader reader) {
-			Interpolator interpolator = createInterpolator(delimiters, projectStartExpressions, propertiesValueSource,
-					project, mavenSession, escapeString, escapeWindowsPaths);
+			return getReader(reader, null, null);
+		}
 
+		/**
+		 * @param reader
+		 *            the reader to filter
+		 * @param tokenListener
+		 *            notified of every replaced token, may be
+		 *            <code>null</code>
+		 * @param source
+		 *            the filtered file for messages, may be <code>null</code>
+		 * @return the filtering reader
+		 */
+		public Reader getReader(Reader reader, TokenListener tokenListener, String source) {
 			MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding filterReader = new MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding(
 					reader, interpolator, supportMultiLineFiltering);
 
-			final RecursionInterceptor ri;
-			if (projectStartExpressions != null && !projectStartExpressions.isEmpty()) {
-				ri = new PrefixAwareRecursionInterceptor(projectStartExpressions, true);
-			} else {
-				ri = new SimpleRecursionInterceptor();
-			}
-
-			filterReader.setRecursionInterceptor(ri);
+			filterReader.setRecursionInterceptor(createRecursionInterceptor());
+			filterReader.setTokenListener(tokenListener);
+			filterReader.setLookaheadListener(getLookaheadListener(source));
+			filterReader.setLookahead(lookahead);
 			filterReader.setDelimiterSpecs(delimiters);
+			filterReader.setDelimiterMatcher(delimiterMatcher);
 
 			filterReader.setInterpolateWithPrefixPattern(false);
 			filterReader.setEscapeString(escapeString);
@@ -218,25 +773,143 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 			return filterReader;
 		}
 
+		/**
+		 * Filters a short text, such as a file name, the way the reader does.
+		 *
+		 * @return <code>text</code> itself if no begin token or escape string
+		 *         can start in it
+		 */
+		String filter(String text) throws IOException {
+			if (!hasCandidate(text)) {
+				return text;
+			}
+			Reader reader = getReader(new StringReader(text), null, null);
+			StringBuilder filtered = new StringBuilder(text.length() + 16);
+			char[] buffer = new char[Math.max(text.length(), 64)];
+			int n;
+			while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+				filtered.append(buffer, 0, n);
+			}
+			return filtered.toString();
+		}
+
+		/**
+		 * @return true if a begin token or the escape string may start in
+		 *         <code>text</code>
+		 */
+		boolean hasCandidate(String text) {
+			char escape = escapeString != null && escapeString.length() > 0 ? escapeString.charAt(0) : 0;
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (delimiterMatcher.isStart(c) || (escape != 0 && c == escape)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		DelimiterMatcher getDelimiterMatcher() {
+			return delimiterMatcher;
+		}
+
+		String getEscapeString() {
+			return escapeString;
+		}
+
+		/**
+		 * @param encoding
+		 *            encoding of the files
+		 * @return a splicer matching the readers of this wrapper, or
+		 *         <code>null</code> if the encoding is not supported
+		 */
+		LiteralSplicer getSplicer(String encoding) {
+			AbstractEnhancerFilterReaderLineEnding reader = (AbstractEnhancerFilterReaderLineEnding) getReader(
+					new StringReader(""), null, null);
+			return LiteralSplicer.of(encoding, delimiterMatcher, escapeString, supportMultiLineFiltering,
+					reader.getMarkLength());
+		}
+
+		/**
+		 * @param metrics
+		 *            counters of the execution, <code>null</code> to stop counting
+		 */
+		void setMetrics(FilteringMetrics metrics) {
+			interpolator.setMetrics(metrics);
+		}
+
+		/**
+		 * Resolves a single token the way the filtering reader does.
+		 *
+		 * @param token
+		 *            the token, delimiters included
+		 * @return the text that replaces it
+		 * @throws InterpolationException
+		 *             if the token cannot be interpolated
+		 */
+		String resolve(String token) throws InterpolationException {
+			String value = interpolator.interpolate(token, createRecursionInterceptor());
+			return value != null ? value : token;
+		}
+
+		/**
+		 * Warns about, or with {@link FilteringEnhancerOptions#FAIL_ON_LOOKAHEAD}
+		 * fails on, an expression longer than the lookahead.
+		 *
+		 * @param source
+		 *            the filtered file for messages, may be <code>null</code>
+		 */
+		LookaheadListener getLookaheadListener(final String source) {
+			return new LookaheadListener() {
+				public void lookaheadExceeded(String expression) throws IOException {
+					String message = (source != null ? source + ": " : "") + "no end token within " + lookahead
+							+ " characters of '" + expression + "'";
+					String hint = "raise " + FilteringEnhancerOptions.LOOKAHEAD + " if the expression is longer";
+					if (failOnLookahead) {
+						throw new IOException(message + ", " + hint);
+					}
+					getLogger().warn(message + ", copied unfiltered; " + hint);
+				}
+			};
+		}
+
+		private RecursionInterceptor createRecursionInterceptor() {
+			if (projectStartExpressions != null && !projectStartExpressions.isEmpty()) {
+				return new PrefixAwareRecursionInterceptor(projectStartExpressions, true);
+			}
+			return new SimpleRecursionInterceptor();
+		}
+
 	}
 
-	private static Interpolator createInterpolator(LinkedHashSet<String> delimiters,
+	/**
+	 * @param shared
+	 *            compiled parts shared within the session, may be
+	 *            <code>null</code>
+	 */
+	private static FilteringEnhancerInterpolator createInterpolator(LinkedHashSet<String> delimiters, DelimiterMatcher delimiterMatcher,
 			List<String> projectStartExpressions, ValueSource propertiesValueSource, MavenProject project,
-			MavenSession mavenSession, String escapeString, boolean escapeWindowsPaths) {
+			MavenSession mavenSession, String escapeString, boolean escapeWindowsPaths, SharedFilteringState shared) {
 		FilteringEnhancerInterpolator interpolator = new FilteringEnhancerInterpolator();
 		interpolator.setDelimiterSpecs(delimiters);
+		interpolator.setDelimiterMatcher(delimiterMatcher);
+		if (shared != null) {
+			interpolator.setParsedExpressions(shared.getParsedExpressions());
+		}
 		interpolator.addValueSource(propertiesValueSource);
 		if (project != null) {
-			interpolator.addValueSource(new PrefixedObjectValueSource(projectStartExpressions, project, true));
+			interpolator.addValueSource(new CompiledObjectValueSource(shared, projectStartExpressions, project, true));
 		}
 		if (mavenSession != null) {
-			interpolator.addValueSource(new PrefixedObjectValueSource("session", mavenSession));
+			interpolator.addValueSource(
+					new CompiledObjectValueSource(shared, Collections.singletonList("session"), mavenSession, false));
 
 			final Settings settings = mavenSession.getSettings();
 			if (settings != null) {
-				interpolator.addValueSource(new PrefixedObjectValueSource("settings", settings));
 				interpolator.addValueSource(
-						new SingleResponseValueSource("localRepository", settings.getLocalRepository()));
+						new CompiledObjectValueSource(shared, Collections.singletonList("settings"), settings, false));
+				interpolator.addValueSource(
+						new SingleResponseValueSource("localRepository", settings.getLocalRepository()),
+						new String[] { "localRepository" });
 			}
 		}
 
@@ -280,18 +953,19 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 		// properties files
 		// to interpolate the expression ${ } in this properties file
 
-		// Take a copy of filterProperties to ensure that evaluated filterTokens
-		// are not propagated
+		// Keep baseProps apart from filterProperties to ensure that evaluated
+		// filterTokens are not propagated
 		// to subsequent filter files. Note: this replicates current behaviour
 		// and seems to make sense.
+		// Both are layered views, later layers win, nothing is copied.
 
-		final Properties baseProps = new Properties();
+		LayeredProperties baseProps = new LayeredProperties();
 
 		// Project properties
-		if (request.getMavenProject() != null) {
-			baseProps.putAll(request.getMavenProject().getProperties() == null ? Collections.emptyMap()
-					: request.getMavenProject().getProperties());
-		}
+		Properties projectProperties = request.getMavenProject() != null
+				? request.getMavenProject().getProperties() : null;
+		baseProps = baseProps.over(projectProperties);
+		Map<?, ?> sessionProperties = null;
 		// TODO this is NPE free but do we consider this as normal
 		// or do we have to throw an MavenFilteringException with mavenSession
 		// cannot be null
@@ -308,21 +982,24 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 		// solution.
 		//
 		if (request.getMavenSession() != null) {
-			// User properties have precedence over system properties
-			baseProps.putAll(request.getMavenSession().getSystemProperties());
-			baseProps.putAll(request.getMavenSession().getUserProperties());
+			// User properties have precedence over system properties, merged
+			// once for the whole session
+			sessionProperties = LayeredProperties.sessionLayer(request.getMavenSession());
+			baseProps = baseProps.over(sessionProperties);
 		}
 
 		// now we build properties to use for resources interpolation
 
-		final Properties filterProperties = new Properties();
+		LayeredProperties filterProperties = new LayeredProperties();
 
 		File basedir = request.getMavenProject() != null ? request.getMavenProject().getBasedir() : new File(".");
 
-		loadProperties(filterProperties, basedir, request.getFileFilters(), baseProps);
-		if (filterProperties.size() < 1) {
-			filterProperties.putAll(baseProps);
-		}
+		PropertiesFileCache propertiesFileCache = PropertiesFileCache.of(request.getMavenSession());
+		// the session layer keeps its fingerprint, only the project
+		// properties are hashed
+		String baseFingerprint = propertiesFileCache == null ? null : baseProps.fingerprint();
+		filterProperties = loadProperties(filterProperties, basedir, request.getFileFilters(), baseProps,
+				propertiesFileCache, baseFingerprint);
 
 		if (request.getMavenProject() != null) {
 			if (request.isInjectProjectBuildFilters()) {
@@ -333,23 +1010,18 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 					buildFilters.removeAll(request.getFileFilters());
 				}
 
-				loadProperties(filterProperties, basedir, buildFilters, baseProps);
+				filterProperties = loadProperties(filterProperties, basedir, buildFilters, baseProps,
+						propertiesFileCache, baseFingerprint);
 			}
 
 			// Project properties
-			filterProperties.putAll(request.getMavenProject().getProperties() == null ? Collections.emptyMap()
-					: request.getMavenProject().getProperties());
-		}
-		if (request.getMavenSession() != null) {
-			// User properties have precedence over system properties
-			filterProperties.putAll(request.getMavenSession().getSystemProperties());
-			filterProperties.putAll(request.getMavenSession().getUserProperties());
+			filterProperties = filterProperties.over(projectProperties);
 		}
+		// User properties have precedence over system properties
+		filterProperties = filterProperties.over(sessionProperties);
 
-		if (request.getAdditionalProperties() != null) {
-			// additional properties wins
-			filterProperties.putAll(request.getAdditionalProperties());
-		}
+		// additional properties wins
+		filterProperties = filterProperties.over(request.getAdditionalProperties());
 
 		List<FileUtils.FilterWrapper> defaultFilterWrappers = request == null
 				? new ArrayList<FileUtils.FilterWrapper>(1)
@@ -359,12 +1031,15 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 			getLogger().debug("properties used " + filterProperties);
 		}
 
-		final ValueSource propertiesValueSource = new PropertiesBasedValueSource(filterProperties);
+		// read by every file of the execution, possibly from several threads
+		final ValueSource propertiesValueSource = filterProperties.freeze(sessionProperties);
 
 		if (request != null) {
+			FilteringEnhancerOptions options = FilteringEnhancerOptions.of(request);
 			FileUtils.FilterWrapper wrapper = new EnhencerWrappers(request.getDelimiters(), request.getMavenProject(),
 					request.getMavenSession(), propertiesValueSource, request.getProjectStartExpressions(),
-					request.getEscapeString(), request.isEscapeWindowsPaths(), request.isSupportMultiLineFiltering());
+					request.getEscapeString(), request.isEscapeWindowsPaths(), request.isSupportMultiLineFiltering(),
+					options.getLookahead(), options.getBoolean(FilteringEnhancerOptions.FAIL_ON_LOOKAHEAD, false));
 
 			defaultFilterWrappers.add(wrapper);
 		}
@@ -372,11 +1047,19 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 		return defaultFilterWrappers;
 	}
 
-	void loadProperties(Properties filterProperties, File basedir, List<String> propertiesFilePaths,
-			Properties baseProps) throws MavenFilteringException {
+	/**
+	 * @param baseFingerprint
+	 *            {@link LayeredProperties#fingerprint()} of
+	 *            <code>baseProps</code>, <code>null</code> without a cache
+	 * @return <code>filterProperties</code> with the loaded files layered on
+	 *         top, in their order
+	 */
+	LayeredProperties loadProperties(LayeredProperties filterProperties, File basedir,
+			List<String> propertiesFilePaths, LayeredProperties baseProps, PropertiesFileCache propertiesFileCache,
+			String baseFingerprint) throws MavenFilteringException {
 		if (propertiesFilePaths != null) {
-			Properties workProperties = new Properties();
-			workProperties.putAll(baseProps);
+			LayeredProperties workProperties = baseProps;
+			String workFingerprint = baseFingerprint;
 
 			for (String filterFile : propertiesFilePaths) {
 				if (StringUtils.isEmpty(filterFile)) {
@@ -385,22 +1068,37 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 				}
 				try {
 					File propFile = FileUtils.resolveFile(basedir, filterFile);
-					Properties properties = PropertyUtils.loadPropertyFile(propFile, workProperties);
-					filterProperties.putAll(properties);
-					workProperties.putAll(properties);
+					Properties properties;
+					if (propertiesFileCache == null) {
+						properties = PropertiesFileCache.loadPropertyFile(propFile, workProperties);
+					} else {
+						workFingerprint = PropertiesFileCache.key(propFile, workFingerprint);
+						properties = propertiesFileCache.load(propFile, workFingerprint, workProperties, getLogger());
+					}
+					filterProperties = filterProperties.over(properties);
+					workProperties = workProperties.over(properties);
 				} catch (IOException e) {
 					throw new MavenFilteringException("Error loading property file '" + filterFile + "'", e);
 				}
 			}
 		}
+		return filterProperties;
 	}
 
+	/**
+	 * @param fileNameFilter
+	 *            filter of the names when only the enhancer filters them,
+	 *            otherwise <code>null</code>
+	 * @param outputFiles
+	 *            creates the directory of the destination
+	 */
 	private File getDestinationFile(File outputDirectory, String targetPath, String name,
-			MavenResourcesExecution mavenResourcesExecution) throws MavenFilteringException {
+			MavenResourcesExecution mavenResourcesExecution, FileNameFilter fileNameFilter, OutputFiles outputFiles)
+			throws MavenFilteringException {
 		String destination = name;
 
 		if (mavenResourcesExecution.isFilterFilenames() && mavenResourcesExecution.getFilterWrappers().size() > 0) {
-			destination = filterFileName(destination, mavenResourcesExecution.getFilterWrappers());
+			destination = filterFileName(destination, mavenResourcesExecution.getFilterWrappers(), fileNameFilter);
 		}
 
 		if (targetPath != null) {
@@ -412,37 +1110,36 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 			destinationFile = new File(outputDirectory, destination);
 		}
 
-		if (!destinationFile.getParentFile().exists()) {
-			destinationFile.getParentFile().mkdirs();
-		}
+		outputFiles.createParent(destinationFile);
 		return destinationFile;
 	}
 
-	private String filterFileName(String name, List<FilterWrapper> wrappers) throws MavenFilteringException {
-
-		Reader reader = new StringReader(name);
-		for (FilterWrapper wrapper : wrappers) {
-			reader = wrapper.getReader(reader);
-		}
-
-		StringWriter writer = new StringWriter();
-
+	private String filterFileName(String name, List<FilterWrapper> wrappers, FileNameFilter fileNameFilter)
+			throws MavenFilteringException {
+		String filteredFilename;
 		try {
-			IOUtil.copy(reader, writer);
+			if (fileNameFilter != null) {
+				filteredFilename = fileNameFilter.filter(name);
+			} else {
+				Reader reader = new StringReader(name);
+				for (FilterWrapper wrapper : wrappers) {
+					reader = wrapper.getReader(reader);
+				}
+				StringWriter writer = new StringWriter();
+				IOUtil.copy(reader, writer);
+				filteredFilename = writer.toString();
+			}
 		} catch (IOException e) {
 			throw new MavenFilteringException("Failed filtering filename" + name, e);
 		}
 
-		String filteredFilename = writer.toString();
-
 		if (getLogger().isDebugEnabled()) {
 			getLogger().debug("renaming filename " + name + " to " + filteredFilename);
 		}
 		return filteredFilename;
 	}
 
-	private void copyDirectoryLayout(File sourceDirectory, File destinationDirectory, Scanner scanner)
-			throws IOException {
+	private static void checkDirectoryLayout(File sourceDirectory, File destinationDirectory) throws IOException {
 		if (sourceDirectory == null) {
 			throw new IOException("source directory can't be null.");
 		}
@@ -458,40 +1155,36 @@ public class FilteringEnhancer extends DefaultMavenResourcesFiltering {
 		if (!sourceDirectory.exists()) {
 			throw new IOException("Source directory doesn't exists (" + sourceDirectory.getAbsolutePath() + ").");
 		}
+	}
 
-		List<String> includedDirectories = Arrays.asList(scanner.getIncludedDirectories());
-
-		for (String name : includedDirectories) {
-			File source = new File(sourceDirectory, name);
-
-			if (source.equals(sourceDirectory)) {
-				continue;
-			}
-
-			File destination = new File(destinationDirectory, name);
-			destination.mkdirs();
+	private static String[] getIncludes(Resource resource) {
+		if (resource.getIncludes() != null && !resource.getIncludes().isEmpty()) {
+			return resource.getIncludes().toArray(EMPTY_STRING_ARRAY);
 		}
+		return DEFAULT_INCLUDES;
 	}
 
-	private String[] setupScanner(Resource resource, Scanner scanner, boolean addDefaultExcludes) {
-		String[] includes = null;
-		if (resource.getIncludes() != null && !resource.getIncludes().isEmpty()) {
-			includes = (String[]) resource.getIncludes().toArray(EMPTY_STRING_ARRAY);
-		} else {
-			includes = DEFAULT_INCLUDES;
+	/**
+	 * @return <code>null</code> if the resource has no exclude
+	 */
+	private static String[] getExcludes(Resource resource) {
+		if (resource.getExcludes() != null && !resource.getExcludes().isEmpty()) {
+			return resource.getExcludes().toArray(EMPTY_STRING_ARRAY);
 		}
+		return null;
+	}
+
+	private static void setupScanner(String[] includes, String[] excludes, Scanner scanner,
+			boolean addDefaultExcludes) {
 		scanner.setIncludes(includes);
 
-		String[] excludes = null;
-		if (resource.getExcludes() != null && !resource.getExcludes().isEmpty()) {
-			excludes = (String[]) resource.getExcludes().toArray(EMPTY_STRING_ARRAY);
+		if (excludes != null) {
 			scanner.setExcludes(excludes);
 		}
 
 		if (addDefaultExcludes) {
 			scanner.addDefaultExcludes();
 		}
-		return includes;
 	}
 
 	private String getRelativeOutputDirectory(MavenResourcesExecution execution) {
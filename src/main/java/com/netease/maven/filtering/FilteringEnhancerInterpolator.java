@@ -1,12 +1,14 @@
 package com.netease.maven.filtering;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.codehaus.plexus.interpolation.InterpolationCycleException;
 import org.codehaus.plexus.interpolation.InterpolationException;
@@ -17,37 +19,81 @@ import org.codehaus.plexus.interpolation.SimpleRecursionInterceptor;
 import org.codehaus.plexus.interpolation.ValueSource;
 import org.codehaus.plexus.interpolation.multi.DelimiterSpecification;
 
+/**
+ * Once configured, an instance may be shared by the readers of all files of an
+ * execution, also from several threads. The value sources must then be safe
+ * for concurrent lookups. With answer caching on, the final text of every
+ * resolved expression and every key no value source knows are kept until
+ * {@link #clearAnswers()}, or until the value sources change for the latter.
+ */
 public class FilteringEnhancerInterpolator implements Interpolator {
-	private static final int MAX_TRIES = 10;
+	/**
+	 * expression, with its default value if any, to its interpolated and post
+	 * processed text
+	 */
+	private final Map<String, String> existingAnswers = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * keys every value source missed, looked up again only for their default
+	 */
+	private final Set<String> missingKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * parsed expressions by their text, delimiters included
+	 */
+	private volatile Map<String, Expression> expressions = newParsedExpressions();
 
-	private Map existingAnswers = new HashMap();
+	private final List<ValueSource> valueSources = new CopyOnWriteArrayList<ValueSource>();
 
-	private List<ValueSource> valueSources = new ArrayList<ValueSource>();
+	/**
+	 * prefixes declared for {@link #valueSources}, at the same positions
+	 */
+	private final List<String[]> valueSourcePrefixes = new ArrayList<String[]>();
 
-	private List postProcessors = new ArrayList();
+	/**
+	 * {@link #valueSources} by the expressions they may answer, rebuilt when
+	 * they change
+	 */
+	private volatile ValueSourceIndex valueSourceIndex = ValueSourceIndex.EMPTY;
 
-	private boolean cacheAnswers = false;
+	private final List<InterpolationPostProcessor> postProcessors = new CopyOnWriteArrayList<InterpolationPostProcessor>();
+
+	private volatile boolean cacheAnswers = false;
 
 	private LinkedHashSet<DelimiterSpecification> delimiters = new LinkedHashSet<DelimiterSpecification>();
 
+	/**
+	 * compiled form of the delimiters, rebuilt lazily when they change
+	 */
+	private volatile DelimiterMatcher matcher;
+
 	private String escapeString;
 
+	/**
+	 * counts answer cache hits and lookups when set
+	 */
+	private volatile FilteringMetrics metrics;
+
+	private static final int MAX_PARSED_EXPRESSIONS = 16 * 1024;
+
 	public FilteringEnhancerInterpolator() {
 		delimiters.add(DelimiterSpecification.DEFAULT_SPEC);
 	}
 
-	public FilteringEnhancerInterpolator addDelimiterSpec(String delimiterSpec) {
+	public synchronized FilteringEnhancerInterpolator addDelimiterSpec(String delimiterSpec) {
 		if (delimiterSpec == null) {
 			return this;
 		}
 		delimiters.add(DelimiterSpecification.parse(delimiterSpec));
+		matcher = null;
 		return this;
 	}
 
-	public boolean removeDelimiterSpec(String delimiterSpec) {
+	public synchronized boolean removeDelimiterSpec(String delimiterSpec) {
 		if (delimiterSpec == null) {
 			return false;
 		}
+		matcher = null;
 		return delimiters.remove(DelimiterSpecification.parse(delimiterSpec));
 	}
 
@@ -65,14 +111,36 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 	 * {@inheritDoc}
 	 */
 	public void addValueSource(ValueSource valueSource) {
+		String[] prefixes = null;
+		if (valueSource instanceof CompiledObjectValueSource) {
+			prefixes = ((CompiledObjectValueSource) valueSource).getPrefixes();
+		}
+		addValueSource(valueSource, prefixes);
+	}
+
+	/**
+	 * @param prefixes
+	 *            the prefixes of every expression <code>valueSource</code>
+	 *            answers, or <code>null</code> if it may answer any
+	 */
+	synchronized void addValueSource(ValueSource valueSource, String[] prefixes) {
 		valueSources.add(valueSource);
+		valueSourcePrefixes.add(prefixes);
+		valueSourceIndex = new ValueSourceIndex(valueSources, valueSourcePrefixes);
+		missingKeys.clear();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public void removeValuesSource(ValueSource valueSource) {
-		valueSources.remove(valueSource);
+	public synchronized void removeValuesSource(ValueSource valueSource) {
+		int index = valueSources.indexOf(valueSource);
+		if (index > -1) {
+			valueSources.remove(index);
+			valueSourcePrefixes.remove(index);
+			valueSourceIndex = new ValueSourceIndex(valueSources, valueSourcePrefixes);
+		}
+		missingKeys.clear();
 	}
 
 	/**
@@ -104,16 +172,19 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 
 	/**
 	 * Entry point for recursive resolution of an expression and all of its
-	 * nested expressions.
+	 * nested expressions. The input is scanned once, nested expressions are
+	 * resolved depth first and each resolved expression is memoized, for the
+	 * duration of the call at least, so every property is expanded only once.
 	 * 
 	 * @todo Ensure unresolvable expressions don't trigger infinite recursion.
 	 */
 	public String interpolate(String input, RecursionInterceptor recursionInterceptor) throws InterpolationException {
 		try {
-			return interpolate(input, recursionInterceptor, new HashSet());
+			return interpolate(input, recursionInterceptor, new HashSet<String>());
 		} finally {
 			if (!cacheAnswers) {
 				existingAnswers.clear();
+				missingKeys.clear();
 			}
 		}
 	}
@@ -125,81 +196,97 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 			return "";
 		}
 		StringBuilder result = new StringBuilder(input.length() * 2);
+		FilteringMetrics metrics = this.metrics;
 
-		String lastResult = input;
-		int tries = 0;
-		do {
-			tries++;
-			if (result.length() > 0) {
-				lastResult = result.toString();
-				result.setLength(0);
-			}
-
-			int startIdx = -1;
-			int endIdx = -1;
+		int startIdx = -1;
+		int endIdx = -1;
 
-			DelimiterSpecification selectedSpec = null;
-			while ((selectedSpec = select(input, endIdx)) != null) {
-				String startExpr = selectedSpec.getBegin();
-				String endExpr = selectedSpec.getEnd();
+		DelimiterMatcher matcher = getDelimiterMatcher();
+		long selection;
+		while ((selection = matcher.select(input, endIdx + 1)) != -1) {
+			int selectedSpec = DelimiterMatcher.spec(selection);
+			String startExpr = matcher.getBegin(selectedSpec);
+			String endExpr = matcher.getEnd(selectedSpec);
 
-				startIdx = selectedSpec.getNextStartIndex();
-				result.append(input, endIdx + 1, startIdx);
+			startIdx = DelimiterMatcher.position(selection);
+			result.append(input, endIdx + 1, startIdx);
 
-				endIdx = input.indexOf(endExpr, startIdx + 1);
-				if (endIdx < 0) {
-					break;
-				}
+			endIdx = indexOfEnd(input, startIdx, startExpr, endExpr);
+			if (endIdx < 0) {
+				break;
+			}
 
-				String wholeExpr = input.substring(startIdx, endIdx + endExpr.length());
-				String realExpr = wholeExpr.substring(startExpr.length(), wholeExpr.length() - endExpr.length());
-
-				if (startIdx >= 0 && escapeString != null && escapeString.length() > 0) {
-					int startEscapeIdx = startIdx == 0 ? 0 : startIdx - escapeString.length();
-					if (startEscapeIdx >= 0) {
-						String escape = input.substring(startEscapeIdx, startIdx);
-						if (escape != null && escapeString.equals(escape)) {
-							result.append(wholeExpr);
-							result.replace(startEscapeIdx, startEscapeIdx + escapeString.length(), "");
-							continue;
-						}
+			String wholeExpr = input.substring(startIdx, endIdx + endExpr.length());
+			String realExpr = wholeExpr.substring(startExpr.length(), wholeExpr.length() - endExpr.length());
+
+			if (startIdx >= 0 && escapeString != null && escapeString.length() > 0) {
+				int startEscapeIdx = startIdx == 0 ? 0 : startIdx - escapeString.length();
+				if (startEscapeIdx >= 0) {
+					String escape = input.substring(startEscapeIdx, startIdx);
+					if (escape != null && escapeString.equals(escape)) {
+						result.append(wholeExpr);
+						result.replace(startEscapeIdx, startEscapeIdx + escapeString.length(), "");
+						continue;
 					}
 				}
-				String defaultValue = null;
-				int n = realExpr.indexOf("?");
-				if (n > -1) {
-					defaultValue = realExpr.substring(n+1).trim();
-					realExpr = realExpr.substring(0, n).trim();
-					wholeExpr = startExpr+realExpr+endExpr;
-
+			}
+			Expression expression = parse(wholeExpr, realExpr, startExpr, endExpr);
+			wholeExpr = expression.wholeExpr;
+			realExpr = expression.key;
+			String defaultValue = expression.defaultValue;
+			String answerKey = expression.answerKey;
+
+			boolean resolved = false;
+			boolean missing = missingKeys.contains(realExpr);
+			if (missing && defaultValue == null) {
+				// known to be unresolvable, written back as it is
+				if (metrics != null) {
+					metrics.answerCacheHit();
+				}
+			} else if (!unresolvable.contains(answerKey)) {
+				if (recursionInterceptor.hasRecursiveExpression(realExpr)) {
+					throw new InterpolationCycleException(recursionInterceptor, realExpr, wholeExpr);
 				}
 
-				boolean resolved = false;
-				if (!unresolvable.contains(wholeExpr)) {
-					if (realExpr.startsWith(".")) {
-						realExpr = realExpr.substring(1);
-					}
+				recursionInterceptor.expressionResolutionStarted(realExpr);
 
-					if (recursionInterceptor.hasRecursiveExpression(realExpr)) {
-						throw new InterpolationCycleException(recursionInterceptor, realExpr, wholeExpr);
+				String answer = existingAnswers.get(answerKey);
+				if (metrics != null) {
+					if (answer != null) {
+						metrics.answerCacheHit();
+					} else {
+						metrics.answerCacheMiss();
 					}
-
-					recursionInterceptor.expressionResolutionStarted(realExpr);
-
-					Object value = existingAnswers.get(realExpr);
+				}
+				if (answer == null) {
+					Object value = null;
 					Object bestAnswer = null;
-					for (ValueSource vs : valueSources) {
-						if (value != null)
-							break;
+					boolean defaulted = false;
+					if (!missing) {
+						for (ValueSource vs : valueSourceIndex.candidates(realExpr)) {
+							if (value != null)
+								break;
 
-						value = vs.getValue(realExpr);
-						if(value == null && defaultValue!=null){
-							value = defaultValue;
+							value = vs.getValue(realExpr);
+
+							if (value != null && value.toString().contains(wholeExpr)) {
+								bestAnswer = value;
+								value = null;
+							}
+						}
+						if (value == null && bestAnswer == null) {
+							missingKeys.add(realExpr);
 						}
+					}
 
-						if (value != null && value.toString().contains(wholeExpr)) {
-							bestAnswer = value;
-							value = null;
+					// the default only when every value source missed, its
+					// expressions are resolved below like those of any value
+					if (value == null && bestAnswer == null && defaultValue != null) {
+						if (defaultValue.contains(wholeExpr)) {
+							bestAnswer = defaultValue;
+						} else {
+							value = defaultValue;
+							defaulted = true;
 						}
 					}
 
@@ -215,8 +302,7 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 						value = interpolate(String.valueOf(value), recursionInterceptor, unresolvable);
 
 						if (postProcessors != null && !postProcessors.isEmpty()) {
-							for (Object postProcessor1 : postProcessors) {
-								InterpolationPostProcessor postProcessor = (InterpolationPostProcessor) postProcessor1;
+							for (InterpolationPostProcessor postProcessor : postProcessors) {
 								Object newVal = postProcessor.execute(realExpr, value);
 								if (newVal != null) {
 									value = newVal;
@@ -225,54 +311,173 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 							}
 						}
 
-						// could use:
-						// result = matcher.replaceFirst( stringValue );
-						// but this could result in multiple lookups of
-						// stringValue, and replaceAll is not correct behaviour
-						result.append(String.valueOf(value));
-						resolved = true;
+						answer = String.valueOf(value);
+						existingAnswers.put(answerKey, answer);
+						if (metrics != null) {
+							metrics.expressionResolved(defaulted);
+						}
 					} else {
-						unresolvable.add(wholeExpr);
+						unresolvable.add(answerKey);
+						if (metrics != null) {
+							metrics.expressionUnresolved();
+						}
 					}
-
-					recursionInterceptor.expressionResolutionFinished(realExpr);
 				}
 
-				if (!resolved) {
-					result.append(wholeExpr);
+				if (answer != null) {
+					// could use:
+					// result = matcher.replaceFirst( stringValue );
+					// but this could result in multiple lookups of
+					// stringValue, and replaceAll is not correct behaviour
+					result.append(answer);
+					resolved = true;
 				}
 
-				if (endIdx > -1) {
-					endIdx += endExpr.length() - 1;
-				}
+				recursionInterceptor.expressionResolutionFinished(realExpr);
+			}
+
+			if (!resolved) {
+				result.append(wholeExpr);
 			}
 
-			if (endIdx == -1 && startIdx > -1) {
-				result.append(input, startIdx, input.length());
-			} else if (endIdx < input.length()) {
-				result.append(input, endIdx + 1, input.length());
+			if (endIdx > -1) {
+				endIdx += endExpr.length() - 1;
 			}
-		} while (!lastResult.equals(result.toString()) && tries < MAX_TRIES);
+		}
+
+		if (endIdx == -1 && startIdx > -1) {
+			result.append(input, startIdx, input.length());
+		} else if (endIdx < input.length()) {
+			result.append(input, endIdx + 1, input.length());
+		}
 
 		return result.toString();
 	}
 
-	private DelimiterSpecification select(String input, int lastEndIdx) {
-		DelimiterSpecification selected = null;
+	/**
+	 * Same as <code>input.indexOf(endExpr, startIdx + 1)</code>, except that
+	 * after the <code>?</code> of a default value, expressions are nested and
+	 * closed first.
+	 */
+	private static int indexOfEnd(String input, int startIdx, String startExpr, String endExpr) {
+		boolean nests = !startExpr.equals(endExpr);
+		int depth = 0;
+		boolean inDefault = false;
+		for (int i = startIdx + 1; i <= input.length() - endExpr.length(); i++) {
+			if (nests && i >= startIdx + startExpr.length()) {
+				if (!inDefault) {
+					inDefault = input.charAt(i) == '?';
+				} else if (input.startsWith(startExpr, i)) {
+					depth++;
+					i += startExpr.length() - 1;
+					continue;
+				}
+			}
+			if (input.startsWith(endExpr, i)) {
+				if (depth == 0) {
+					return i;
+				}
+				depth--;
+				i += endExpr.length() - 1;
+			}
+		}
+		return -1;
+	}
 
-		for (DelimiterSpecification spec : delimiters) {
-			spec.clearNextStart();
+	static Map<String, Expression> newParsedExpressions() {
+		return new ConcurrentHashMap<String, Expression>();
+	}
 
-			if (selected == null) {
-				int idx = input.indexOf(spec.getBegin(), lastEndIdx + 1);
-				if (idx > -1) {
-					spec.setNextStartIndex(idx);
-					selected = spec;
-				}
+	/**
+	 * @param expressions
+	 *            parsed expressions to share with other interpolators, from
+	 *            {@link #newParsedExpressions()}
+	 */
+	void setParsedExpressions(Map<String, Expression> expressions) {
+		this.expressions = expressions;
+	}
+
+	/**
+	 * @return the parsed form of <code>wholeExpr</code>, parsed once per
+	 *         instance or set of instances sharing their parsed expressions
+	 */
+	private Expression parse(String wholeExpr, String realExpr, String startExpr, String endExpr) {
+		Expression expression = expressions.get(wholeExpr);
+		if (expression != null && expression.startExpr.equals(startExpr) && expression.endExpr.equals(endExpr)) {
+			return expression;
+		}
+		expression = new Expression(realExpr, startExpr, endExpr);
+		if (expressions.size() < MAX_PARSED_EXPRESSIONS) {
+			expressions.put(wholeExpr, expression);
+		}
+		return expression;
+	}
+
+	/**
+	 * <code>key?default</code> between delimiters, split at the first
+	 * <code>?</code>. The default may hold expressions of its own, it is only
+	 * interpolated when no value source knows the key.
+	 */
+	static final class Expression {
+		final String startExpr;
+
+		final String endExpr;
+
+		/**
+		 * looked up in the value sources
+		 */
+		final String key;
+
+		/**
+		 * used when no value source knows the key, or <code>null</code>
+		 */
+		final String defaultValue;
+
+		/**
+		 * the expression without its default, written back when unresolved
+		 */
+		final String wholeExpr;
+
+		/**
+		 * the expression with its delimiters and default, an answer depends on
+		 * the delimiters through the recursion check
+		 */
+		final String answerKey;
+
+		Expression(String realExpr, String startExpr, String endExpr) {
+			this.startExpr = startExpr;
+			this.endExpr = endExpr;
+			String key = realExpr;
+			String defaultValue = null;
+			String wholeExpr = startExpr + realExpr + endExpr;
+			int n = realExpr.indexOf('?');
+			if (n > -1) {
+				defaultValue = realExpr.substring(n + 1).trim();
+				key = realExpr.substring(0, n).trim();
+				wholeExpr = startExpr + key + endExpr;
+			}
+			if (key.startsWith(".")) {
+				key = key.substring(1);
 			}
+			this.key = key;
+			this.defaultValue = defaultValue;
+			this.wholeExpr = wholeExpr;
+			this.answerKey = defaultValue == null ? wholeExpr : wholeExpr + "?" + defaultValue;
 		}
+	}
 
-		return selected;
+	private DelimiterMatcher getDelimiterMatcher() {
+		DelimiterMatcher compiled = matcher;
+		if (compiled == null) {
+			synchronized (this) {
+				compiled = matcher;
+				if (compiled == null) {
+					compiled = DelimiterMatcher.of(delimiters);
+					matcher = compiled;
+				}
+			}
+		}
+		return compiled;
 	}
 
 	/**
@@ -315,6 +520,15 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 
 	public void clearAnswers() {
 		existingAnswers.clear();
+		missingKeys.clear();
+	}
+
+	/**
+	 * @param metrics
+	 *            counters of the execution, <code>null</code> to stop counting
+	 */
+	void setMetrics(FilteringMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	public String getEscapeString() {
@@ -325,7 +539,7 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 		this.escapeString = escapeString;
 	}
 
-	public FilteringEnhancerInterpolator setDelimiterSpecs(LinkedHashSet<String> specs) {
+	public synchronized FilteringEnhancerInterpolator setDelimiterSpecs(LinkedHashSet<String> specs) {
 		delimiters.clear();
 		for (String spec : specs) {
 			if (spec == null) {
@@ -333,7 +547,21 @@ public class FilteringEnhancerInterpolator implements Interpolator {
 			}
 			delimiters.add(DelimiterSpecification.parse(spec));
 		}
+		matcher = null;
 
 		return this;
 	}
+
+	/**
+	 * Shares an already compiled matcher, it must describe the same delimiters
+	 * as the ones given to {@link #setDelimiterSpecs(LinkedHashSet)}.
+	 *
+	 * @param matcher
+	 *            compiled delimiters.
+	 * @return this
+	 */
+	public FilteringEnhancerInterpolator setDelimiterMatcher(DelimiterMatcher matcher) {
+		this.matcher = matcher;
+		return this;
+	}
 }
@@ -0,0 +1,152 @@
+package com.netease.maven.filtering;
+
+import java.util.Properties;
+
+import org.apache.maven.shared.filtering.AbstractMavenFilteringRequest;
+import org.apache.maven.shared.filtering.MavenFilteringException;
+
+/**
+ * Tuning switches of the enhancer. They are read from the user properties of
+ * the session (<code>-Dfiltering.enhancer.threads=4</code>) first and from the
+ * project properties second, so they can be set per build or per module.
+ */
+final class FilteringEnhancerOptions {
+
+	static final String PREFIX = "filtering.enhancer.";
+
+	/**
+	 * number of worker threads filtering files in parallel, 1 keeps the
+	 * sequential mode, 0 uses one thread per available processor
+	 */
+	static final String THREADS = PREFIX + "threads";
+
+	/**
+	 * upper bound of the bytes of source files being filtered at the same time
+	 * in parallel mode
+	 */
+	static final String MAX_IN_FLIGHT_BYTES = PREFIX + "maxInFlightBytes";
+
+	/**
+	 * keep a manifest of the written files under the build directory and skip
+	 * the files whose output would not change
+	 */
+	static final String INCREMENTAL = PREFIX + "incremental";
+
+	/**
+	 * filter UTF-8, ISO-8859-1 and US-ASCII resources on their bytes, decoding
+	 * expressions only and copying the text between them as it is
+	 */
+	static final String SPLICE = PREFIX + "splice";
+
+	/**
+	 * characters searched for the end token of an expression, bounding the
+	 * memory used per file; longer expressions are copied unfiltered
+	 */
+	static final String LOOKAHEAD = PREFIX + "lookahead";
+
+	/**
+	 * fail the build instead of warning when an expression is not closed
+	 * within the lookahead
+	 */
+	static final String FAIL_ON_LOOKAHEAD = PREFIX + "failOnLookahead";
+
+	/**
+	 * write per file timings, byte counts and expression counters of every
+	 * execution to a JSON file under the build directory and log a summary
+	 */
+	static final String METRICS = PREFIX + "metrics";
+
+	/**
+	 * read sources ahead, filter and write them back in separate stages, so
+	 * the file system latency overlaps with filtering; the filter stage runs
+	 * on {@link #THREADS} threads
+	 */
+	static final String PIPELINE = PREFIX + "pipeline";
+
+	/**
+	 * copy the resources that are not filtered, and those with a non filtered
+	 * extension, instead of leaving them to another execution
+	 */
+	static final String COPY_UNFILTERED = PREFIX + "copyUnfiltered";
+
+	/**
+	 * how unfiltered resources are copied, {@link ResourceCopier#COPY} or
+	 * {@link ResourceCopier#HARDLINK}
+	 */
+	static final String COPY_MODE = PREFIX + "copyMode";
+
+	private static final int MAX_LOOKAHEAD = 16 * 1024 * 1024;
+
+	private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+	private final Properties userProperties;
+
+	private final Properties projectProperties;
+
+	private FilteringEnhancerOptions(Properties userProperties, Properties projectProperties) {
+		this.userProperties = userProperties;
+		this.projectProperties = projectProperties;
+	}
+
+	static FilteringEnhancerOptions of(AbstractMavenFilteringRequest request) {
+		Properties userProperties = null;
+		if (request.getMavenSession() != null) {
+			userProperties = request.getMavenSession().getUserProperties();
+		}
+		Properties projectProperties = null;
+		if (request.getMavenProject() != null) {
+			projectProperties = request.getMavenProject().getProperties();
+		}
+		return new FilteringEnhancerOptions(userProperties, projectProperties);
+	}
+
+	String get(String key) {
+		String value = userProperties == null ? null : userProperties.getProperty(key);
+		if (value == null && projectProperties != null) {
+			value = projectProperties.getProperty(key);
+		}
+		return value == null ? null : value.trim();
+	}
+
+	boolean getBoolean(String key, boolean defaultValue) {
+		String value = get(key);
+		return value == null || value.length() == 0 ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	long getLong(String key, long defaultValue) throws MavenFilteringException {
+		String value = get(key);
+		if (value == null || value.length() == 0) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new MavenFilteringException("Invalid value '" + value + "' for " + key, e);
+		}
+	}
+
+	int getThreads() throws MavenFilteringException {
+		int threads = (int) getLong(THREADS, 1);
+		return threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+
+	long getMaxInFlightBytes() throws MavenFilteringException {
+		return Math.max(1, getLong(MAX_IN_FLIGHT_BYTES, DEFAULT_MAX_IN_FLIGHT_BYTES));
+	}
+
+	String getCopyMode() throws MavenFilteringException {
+		String mode = get(COPY_MODE);
+		if (mode == null || mode.length() == 0) {
+			return ResourceCopier.COPY;
+		}
+		if (!ResourceCopier.COPY.equals(mode) && !ResourceCopier.HARDLINK.equals(mode)) {
+			throw new MavenFilteringException("Invalid value '" + mode + "' for " + COPY_MODE);
+		}
+		return mode;
+	}
+
+	int getLookahead() throws MavenFilteringException {
+		long lookahead = getLong(LOOKAHEAD, AbstractEnhancerFilterReaderLineEnding.DEFAULT_LOOKAHEAD);
+		return (int) Math.min(MAX_LOOKAHEAD, Math.max(1, lookahead));
+	}
+}
@@ -0,0 +1,285 @@
+package com.netease.maven.filtering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.shared.utils.io.IOUtil;
+
+/**
+ * On-disk record of the files written by one resources execution, used to skip
+ * files whose output would not change. An entry holds the hash of the source
+ * content, the filtering configuration and, for every token the file
+ * contained, the hash of the value it was replaced with.
+ * <p>
+ * Only the entries put during the current execution are stored back, so
+ * outputs that are no longer produced drop out of the manifest.
+ */
+final class FilteringManifest {
+
+	private static final int VERSION = 2;
+
+	/**
+	 * longest encoded string {@link DataOutputStream#writeUTF(String)} writes
+	 */
+	private static final int MAX_UTF_LENGTH = 65535;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	static final class Entry {
+		final String sourceHash;
+
+		final long sourceLength;
+
+		final long sourceModified;
+
+		final String config;
+
+		final long outputLength;
+
+		final long outputModified;
+
+		/**
+		 * token as found in the source to the hash of its value
+		 */
+		final Map<String, String> tokens;
+
+		Entry(String sourceHash, long sourceLength, long sourceModified, String config, long outputLength,
+				long outputModified, Map<String, String> tokens) {
+			this.sourceHash = sourceHash;
+			this.sourceLength = sourceLength;
+			this.sourceModified = sourceModified;
+			this.config = config;
+			this.outputLength = outputLength;
+			this.outputModified = outputModified;
+			this.tokens = tokens;
+		}
+
+		/**
+		 * @return true if the source still has the recorded length and
+		 *         modification time, its recorded hash can then be trusted
+		 */
+		boolean isSourceUntouched(long length, long modified) {
+			return sourceLength == length && sourceModified == modified;
+		}
+
+		boolean isUpToDate(String sourceHash, String config, File output) {
+			return this.sourceHash.equals(sourceHash) && this.config.equals(config) && output.isFile()
+					&& output.length() == outputLength && output.lastModified() == outputModified;
+		}
+	}
+
+	/**
+	 * Collects the tokens a file resolved while it is being filtered.
+	 */
+	static final class Recorder implements TokenListener {
+		private final Map<String, String> tokens = new LinkedHashMap<String, String>();
+
+		public void tokenResolved(String token, String value) {
+			if (!tokens.containsKey(token)) {
+				tokens.put(token, hash(value));
+			}
+		}
+
+		Map<String, String> getTokens() {
+			return tokens;
+		}
+	}
+
+	private final File file;
+
+	private final String config;
+
+	private final Map<String, Entry> previous;
+
+	private final Map<String, Entry> current = new ConcurrentHashMap<String, Entry>();
+
+	private FilteringManifest(File file, String config, Map<String, Entry> previous) {
+		this.file = file;
+		this.config = config;
+		this.previous = previous;
+	}
+
+	/**
+	 * @param file
+	 *            the manifest file, it need not exist
+	 * @param config
+	 *            fingerprint of the filtering configuration of this execution
+	 * @return the manifest, empty if the file is missing, unreadable or of an
+	 *         older format
+	 */
+	static FilteringManifest load(File file, String config) {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		if (file.isFile()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if (in.readInt() == VERSION) {
+					int count = in.readInt();
+					for (int i = 0; i < count; i++) {
+						String path = in.readUTF();
+						String sourceHash = in.readUTF();
+						long sourceLength = in.readLong();
+						long sourceModified = in.readLong();
+						String entryConfig = in.readUTF();
+						long outputLength = in.readLong();
+						long outputModified = in.readLong();
+						int tokenCount = in.readInt();
+						Map<String, String> tokens = new LinkedHashMap<String, String>();
+						for (int t = 0; t < tokenCount; t++) {
+							tokens.put(in.readUTF(), in.readUTF());
+						}
+						entries.put(path, new Entry(sourceHash, sourceLength, sourceModified, entryConfig, outputLength,
+								outputModified, tokens));
+					}
+				}
+			} catch (IOException e) {
+				// unusable manifest, everything is filtered again
+				entries.clear();
+			} finally {
+				IOUtil.close(in);
+			}
+		}
+		return new FilteringManifest(file, config, entries);
+	}
+
+	String getConfig() {
+		return config;
+	}
+
+	Entry getPrevious(String path) {
+		return previous.get(path);
+	}
+
+	void put(String path, Entry entry) {
+		current.put(path, entry);
+	}
+
+	/**
+	 * Writes the manifest through a temporary file, a failed store leaves the
+	 * previous manifest as it was. Entries with a path or token too long for
+	 * the format are left out, their files are filtered again next time.
+	 */
+	void store() throws IOException {
+		file.getParentFile().mkdirs();
+		Map<String, Entry> storable = new HashMap<String, Entry>();
+		for (Map.Entry<String, Entry> e : current.entrySet()) {
+			if (isStorable(e.getKey(), e.getValue())) {
+				storable.put(e.getKey(), e.getValue());
+			}
+		}
+		File temporary = OutputFiles.createTemporary(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				out.writeInt(VERSION);
+				out.writeInt(storable.size());
+				for (Map.Entry<String, Entry> e : storable.entrySet()) {
+					Entry entry = e.getValue();
+					out.writeUTF(e.getKey());
+					out.writeUTF(entry.sourceHash);
+					out.writeLong(entry.sourceLength);
+					out.writeLong(entry.sourceModified);
+					out.writeUTF(entry.config);
+					out.writeLong(entry.outputLength);
+					out.writeLong(entry.outputModified);
+					out.writeInt(entry.tokens.size());
+					for (Map.Entry<String, String> token : entry.tokens.entrySet()) {
+						out.writeUTF(token.getKey());
+						out.writeUTF(token.getValue());
+					}
+				}
+			} finally {
+				out.close();
+			}
+			OutputFiles.move(temporary, file);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private static boolean isStorable(String path, Entry entry) {
+		if (!fitsUTF(path) || !fitsUTF(entry.config)) {
+			return false;
+		}
+		for (String token : entry.tokens.keySet()) {
+			if (!fitsUTF(token)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if {@link DataOutputStream#writeUTF(String)} can write
+	 *         <code>text</code>
+	 */
+	private static boolean fitsUTF(String text) {
+		if (text.length() <= MAX_UTF_LENGTH / 3) {
+			return true;
+		}
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+		}
+		return length <= MAX_UTF_LENGTH;
+	}
+
+	static String hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			IOUtil.close(in);
+		}
+		return toHex(digest.digest());
+	}
+
+	static String hash(byte[] content) {
+		return toHex(newDigest().digest(content));
+	}
+
+	static String hash(String value) {
+		try {
+			return toHex(newDigest().digest(value.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
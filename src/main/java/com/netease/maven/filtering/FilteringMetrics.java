@@ -0,0 +1,266 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one resources execution, written as JSON when it ends. Only
+ * created when {@link FilteringEnhancerOptions#METRICS} is set, every hook is
+ * behind a null check otherwise. Files may be reported from several threads.
+ * <p>
+ * Expressions are counted twice: every occurrence replaced in a file, and
+ * every lookup reaching the interpolator, nested expressions included. The
+ * readers remember the tokens of a file, so a repeated expression only counts
+ * as an occurrence.
+ */
+final class FilteringMetrics {
+
+	/**
+	 * files listed as the slowest
+	 */
+	private static final int SLOWEST = 20;
+
+	private static final class FileRecord {
+		final int directory;
+
+		final String source;
+
+		final String destination;
+
+		final long bytesIn;
+
+		final long bytesOut;
+
+		final long nanos;
+
+		FileRecord(int directory, File source, File destination, long nanos) {
+			this.directory = directory;
+			this.source = source.getPath();
+			this.destination = destination.getPath();
+			this.bytesIn = source.length();
+			this.bytesOut = destination.length();
+			this.nanos = nanos;
+		}
+	}
+
+	private final long started = System.nanoTime();
+
+	private final List<String> directories = new ArrayList<String>();
+
+	private final List<Long> directoryNanos = new ArrayList<Long>();
+
+	private final List<FileRecord> files = Collections.synchronizedList(new ArrayList<FileRecord>());
+
+	private final AtomicLong occurrences = new AtomicLong();
+
+	private final AtomicLong unresolvedOccurrences = new AtomicLong();
+
+	private final AtomicLong resolved = new AtomicLong();
+
+	private final AtomicLong defaulted = new AtomicLong();
+
+	private final AtomicLong unresolved = new AtomicLong();
+
+	private final AtomicLong answerHits = new AtomicLong();
+
+	private final AtomicLong answerMisses = new AtomicLong();
+
+	/**
+	 * @return the index of the directory for {@link #fileFiltered}
+	 */
+	int directoryStarted(File directory) {
+		directories.add(directory.getPath());
+		directoryNanos.add(System.nanoTime());
+		return directories.size() - 1;
+	}
+
+	void directoryFinished(int directory) {
+		directoryNanos.set(directory, System.nanoTime() - directoryNanos.get(directory));
+	}
+
+	void fileFiltered(int directory, File source, File destination, long nanos) {
+		files.add(new FileRecord(directory, source, destination, nanos));
+	}
+
+	/**
+	 * @param next
+	 *            listener to pass the tokens on to, may be <code>null</code>
+	 * @return a listener counting the replaced tokens of a file
+	 */
+	TokenListener countTokens(final TokenListener next) {
+		return new TokenListener() {
+			public void tokenResolved(String token, String value) {
+				occurrences.incrementAndGet();
+				if (token.equals(value)) {
+					unresolvedOccurrences.incrementAndGet();
+				}
+				if (next != null) {
+					next.tokenResolved(token, value);
+				}
+			}
+		};
+	}
+
+	void answerCacheHit() {
+		answerHits.incrementAndGet();
+	}
+
+	void answerCacheMiss() {
+		answerMisses.incrementAndGet();
+	}
+
+	/**
+	 * @param fromDefault
+	 *            the default value of the expression was used
+	 */
+	void expressionResolved(boolean fromDefault) {
+		(fromDefault ? defaulted : resolved).incrementAndGet();
+	}
+
+	void expressionUnresolved() {
+		unresolved.incrementAndGet();
+	}
+
+	private List<FileRecord> slowest() {
+		List<FileRecord> sorted;
+		synchronized (files) {
+			sorted = new ArrayList<FileRecord>(files);
+		}
+		Collections.sort(sorted, new Comparator<FileRecord>() {
+			public int compare(FileRecord a, FileRecord b) {
+				return a.nanos < b.nanos ? 1 : a.nanos > b.nanos ? -1 : 0;
+			}
+		});
+		return sorted.subList(0, Math.min(SLOWEST, sorted.size()));
+	}
+
+	private double answerHitRate() {
+		long lookups = answerHits.get() + answerMisses.get();
+		return lookups == 0 ? 0 : (double) answerHits.get() / lookups;
+	}
+
+	/**
+	 * @return the one line summary for the build log
+	 */
+	String summary() {
+		long bytesIn = 0;
+		long bytesOut = 0;
+		synchronized (files) {
+			for (FileRecord file : files) {
+				bytesIn += file.bytesIn;
+				bytesOut += file.bytesOut;
+			}
+		}
+		List<FileRecord> slowest = slowest();
+		StringBuilder summary = new StringBuilder();
+		summary.append("filtered ").append(files.size()).append(" files in ").append(directories.size())
+				.append(" directories, ").append(bytesIn).append(" bytes in, ").append(bytesOut)
+				.append(" bytes out, ").append(millis(System.nanoTime() - started)).append(" ms; ")
+				.append(occurrences.get()).append(" expressions, ").append(unresolvedOccurrences.get())
+				.append(" unresolved; answer cache hit rate ")
+				.append(String.format(Locale.ENGLISH, "%.1f", answerHitRate() * 100)).append('%');
+		if (!slowest.isEmpty()) {
+			summary.append("; slowest ").append(new File(slowest.get(0).source).getName()).append(' ')
+					.append(millis(slowest.get(0).nanos)).append(" ms");
+		}
+		return summary.toString();
+	}
+
+	void write(File file, File outputDirectory) throws IOException {
+		long wallTime = System.nanoTime() - started;
+		long[] directoryBytesIn = new long[directories.size()];
+		long[] directoryBytesOut = new long[directories.size()];
+		int[] directoryFiles = new int[directories.size()];
+		List<FileRecord> all;
+		synchronized (files) {
+			all = new ArrayList<FileRecord>(files);
+		}
+		long bytesIn = 0;
+		long bytesOut = 0;
+		for (FileRecord record : all) {
+			directoryBytesIn[record.directory] += record.bytesIn;
+			directoryBytesOut[record.directory] += record.bytesOut;
+			directoryFiles[record.directory]++;
+			bytesIn += record.bytesIn;
+			bytesOut += record.bytesOut;
+		}
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"outputDirectory\": ").append(quote(outputDirectory.getPath())).append(",\n");
+		json.append("  \"wallTimeMillis\": ").append(millis(wallTime)).append(",\n");
+		json.append("  \"files\": ").append(all.size()).append(",\n");
+		json.append("  \"bytesIn\": ").append(bytesIn).append(",\n");
+		json.append("  \"bytesOut\": ").append(bytesOut).append(",\n");
+		json.append("  \"expressions\": {\"occurrences\": ").append(occurrences.get())
+				.append(", \"unresolvedOccurrences\": ").append(unresolvedOccurrences.get())
+				.append(", \"resolved\": ").append(resolved.get()).append(", \"defaulted\": ")
+				.append(defaulted.get()).append(", \"unresolved\": ").append(unresolved.get()).append("},\n");
+		json.append("  \"answerCache\": {\"hits\": ").append(answerHits.get()).append(", \"misses\": ")
+				.append(answerMisses.get()).append(", \"hitRate\": ")
+				.append(String.format(Locale.ENGLISH, "%.4f", answerHitRate())).append("},\n");
+		json.append("  \"directories\": [");
+		for (int i = 0; i < directories.size(); i++) {
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"directory\": ").append(quote(directories.get(i))).append(", \"files\": ")
+					.append(directoryFiles[i]).append(", \"bytesIn\": ").append(directoryBytesIn[i])
+					.append(", \"bytesOut\": ").append(directoryBytesOut[i]).append(", \"wallTimeMillis\": ")
+					.append(millis(directoryNanos.get(i))).append('}');
+		}
+		json.append("\n  ],\n");
+		json.append("  \"slowestFiles\": [");
+		appendFiles(json, slowest());
+		json.append("\n  ],\n");
+		json.append("  \"fileDetails\": [");
+		appendFiles(json, all);
+		json.append("\n  ]\n");
+		json.append("}\n");
+
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(json.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void appendFiles(StringBuilder json, List<FileRecord> records) {
+		for (int i = 0; i < records.size(); i++) {
+			FileRecord record = records.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"source\": ").append(quote(record.source)).append(", \"destination\": ")
+					.append(quote(record.destination)).append(", \"bytesIn\": ").append(record.bytesIn)
+					.append(", \"bytesOut\": ").append(record.bytesOut).append(", \"wallTimeMillis\": ")
+					.append(millis(record.nanos)).append('}');
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ENGLISH, "%.3f", nanos / 1e6);
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
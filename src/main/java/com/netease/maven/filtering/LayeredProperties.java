@@ -0,0 +1,225 @@
+package com.netease.maven.filtering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.interpolation.ValueSource;
+
+/**
+ * Read-through view over property layers, a higher layer hides the lower ones.
+ * Nothing is copied: a lookup walks the layers from the top, the project,
+ * additional and filter file properties are referenced as they are, until
+ * the view is frozen for the files of an execution.
+ * <p>
+ * Lookups answer what {@link Properties#getProperty(String)} would answer after
+ * <code>putAll</code> of the layers from the bottom up: the topmost layer
+ * holding the key decides, and a value that is not a string reads as
+ * <code>null</code>. Defaults of the layers are not consulted, the same as
+ * <code>putAll</code> does not copy them.
+ */
+final class LayeredProperties implements ValueSource {
+
+	private static final Map<Object, PropertySnapshot> SESSION_LAYERS = new WeakHashMap<Object, PropertySnapshot>();
+
+	private static final Map<?, ?>[] NO_LAYERS = {};
+
+	/**
+	 * highest precedence first
+	 */
+	private final Map<?, ?>[] layers;
+
+	LayeredProperties() {
+		this(NO_LAYERS);
+	}
+
+	private LayeredProperties(Map<?, ?>[] layers) {
+		this.layers = layers;
+	}
+
+	/**
+	 * @param layer
+	 *            properties to put above the ones of this view, they are
+	 *            referenced, not copied
+	 * @return a new view, this one is left as it is
+	 */
+	LayeredProperties over(Map<?, ?> layer) {
+		if (layer == null) {
+			return this;
+		}
+		Map<?, ?>[] stacked = new Map<?, ?>[layers.length + 1];
+		stacked[0] = layer;
+		System.arraycopy(layers, 0, stacked, 1, layers.length);
+		return new LayeredProperties(stacked);
+	}
+
+	/**
+	 * @param shared
+	 *            a layer of this view that is kept as it is, such as the
+	 *            {@link #sessionLayer(MavenSession)}, may be <code>null</code>
+	 * @return a view answering the same as this one from one
+	 *         {@link PropertySnapshot} of the other layers over
+	 *         <code>shared</code>, so a lookup is at most two probes without
+	 *         the lock of the {@link Properties} layers
+	 */
+	LayeredProperties freeze(Map<?, ?> shared) {
+		int at = -1;
+		for (int i = 0; i < layers.length && shared != null; i++) {
+			if (layers[i] == shared) {
+				at = i;
+			}
+		}
+		if (at < 0) {
+			Map<?, ?>[] lowestFirst = new Map<?, ?>[layers.length];
+			for (int i = 0; i < layers.length; i++) {
+				lowestFirst[i] = layers[layers.length - 1 - i];
+			}
+			return new LayeredProperties(new Map<?, ?>[] { PropertySnapshot.of(lowestFirst) });
+		}
+		// the layers below the shared one only answer what it does not hide
+		Map<?, ?>[] lowestFirst = new Map<?, ?>[layers.length - 1];
+		int below = layers.length - 1 - at;
+		for (int i = 0; i < lowestFirst.length; i++) {
+			int layer = layers.length - 1 - i;
+			lowestFirst[i] = layers[layer <= at ? layer - 1 : layer];
+		}
+		return new LayeredProperties(new Map<?, ?>[] { PropertySnapshot.over(shared, below, lowestFirst), shared });
+	}
+
+	String getProperty(String key) {
+		if (key == null) {
+			return null;
+		}
+		for (Map<?, ?> layer : layers) {
+			Object value = layer.get(key);
+			if (value != null) {
+				return value instanceof String ? (String) value : null;
+			}
+		}
+		return null;
+	}
+
+	public Object getValue(String expression) {
+		return getProperty(expression);
+	}
+
+	@SuppressWarnings("rawtypes")
+	public List getFeedback() {
+		return Collections.EMPTY_LIST;
+	}
+
+	public void clearFeedback() {
+	}
+
+	/**
+	 * @return hash of the layers and their content, two views with the same
+	 *         fingerprint answer the same
+	 */
+	String fingerprint() {
+		StringBuilder text = new StringBuilder();
+		for (Map<?, ?> layer : layers) {
+			if (layer instanceof PropertySnapshot) {
+				text.append(((PropertySnapshot) layer).fingerprint());
+			} else {
+				text.append(fingerprint(layer));
+			}
+			text.append('\n');
+		}
+		return FilteringManifest.hash(text.toString());
+	}
+
+	/**
+	 * @return hash of the entries of <code>properties</code>, independent of
+	 *         their order
+	 */
+	static String fingerprint(Map<?, ?> properties) {
+		List<String> entries = new ArrayList<String>(properties.size());
+		for (Map.Entry<?, ?> entry : properties.entrySet()) {
+			String key = String.valueOf(entry.getKey());
+			String value = String.valueOf(entry.getValue());
+			entries.add(key.length() + ":" + key + value.length() + ":" + value);
+		}
+		Collections.sort(entries);
+		StringBuilder text = new StringBuilder();
+		for (String entry : entries) {
+			text.append(entry).append('\n');
+		}
+		return FilteringManifest.hash(text.toString());
+	}
+
+	/**
+	 * Merges the layers, only meant for logging.
+	 */
+	@Override
+	public String toString() {
+		Map<Object, Object> merged = new HashMap<Object, Object>();
+		for (int i = layers.length - 1; i >= 0; i--) {
+			merged.putAll(layers[i]);
+		}
+		return merged.toString();
+	}
+
+	/**
+	 * The system properties overridden by the user properties of the session.
+	 * The layer is merged once and shared by all modules of the build; each
+	 * call walks the current entries against it, and merges again when one
+	 * was added, removed or replaced during the build.
+	 * <p>
+	 * The layer is kept by the {@link MavenExecutionRequest} the properties
+	 * come from, not by the session, which a parallel build clones for every
+	 * module.
+	 *
+	 * @param session
+	 *            the current session
+	 * @return the layer of the session
+	 */
+	static Map<?, ?> sessionLayer(MavenSession session) {
+		Properties systemProperties = session.getSystemProperties();
+		Properties userProperties = session.getUserProperties();
+		Object build = session.getRequest() != null ? session.getRequest() : session;
+		synchronized (SESSION_LAYERS) {
+			PropertySnapshot layer = SESSION_LAYERS.get(build);
+			if (layer == null || !isMerge(layer, systemProperties, userProperties)) {
+				layer = PropertySnapshot.of(systemProperties, userProperties);
+				SESSION_LAYERS.put(build, layer);
+			}
+			return layer;
+		}
+	}
+
+	/**
+	 * @return true if <code>layer</code> holds the entries of
+	 *         <code>userProperties</code> and the other entries of
+	 *         <code>systemProperties</code>, and nothing else
+	 */
+	private static boolean isMerge(PropertySnapshot layer, Properties systemProperties, Properties userProperties) {
+		int count = 0;
+		synchronized (userProperties) {
+			for (Map.Entry<?, ?> entry : userProperties.entrySet()) {
+				if (entry.getKey() instanceof String) {
+					if (!entry.getValue().equals(layer.get(entry.getKey()))) {
+						return false;
+					}
+					count++;
+				}
+			}
+		}
+		synchronized (systemProperties) {
+			for (Map.Entry<?, ?> entry : systemProperties.entrySet()) {
+				if (entry.getKey() instanceof String && !userProperties.containsKey(entry.getKey())) {
+					if (!entry.getValue().equals(layer.get(entry.getKey()))) {
+						return false;
+					}
+					count++;
+				}
+			}
+		}
+		return count == layer.size();
+	}
+}
@@ -0,0 +1,290 @@
+package com.netease.maven.filtering;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.apache.maven.shared.utils.io.IOUtil;
+
+import com.netease.maven.filtering.FilteringEnhancer.EnhencerWrappers;
+
+/**
+ * Filters a file by copying the byte ranges that cannot hold an expression with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * and running only the ranges around candidate characters through a
+ * {@link ByteTokenFilter}. A file without candidate characters is scanned once
+ * and then copied by the kernel as a whole.
+ * <p>
+ * The reader only changes text at a character that may start a begin token or
+ * the escape string, and looks no further than its mark length ahead. A range
+ * that starts at such a character and ends more than one mark length after the
+ * last one thus filters to the same text alone as within the file. This holds
+ * for UTF-8, ISO-8859-1 and US-ASCII with ASCII delimiters and escape string,
+ * where the candidate characters are single bytes that never occur inside other
+ * characters, and only for files that decode without errors; the reader is used
+ * for everything else.
+ */
+final class LiteralSplicer {
+
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private final Charset charset;
+
+	private final DelimiterMatcher matcher;
+
+	private final String escapeString;
+
+	private final boolean supportMultiLineFiltering;
+
+	private final int markLength;
+
+	private final boolean utf8;
+
+	private final boolean ascii;
+
+	/**
+	 * ASCII characters starting a begin token or the escape string
+	 */
+	private final boolean[] candidates = new boolean[128];
+
+	/**
+	 * bytes after the last candidate of a range that still belong to it
+	 */
+	private final long reach;
+
+	private LiteralSplicer(Charset charset, DelimiterMatcher matcher, String escapeString,
+			boolean supportMultiLineFiltering, int markLength) {
+		this.charset = charset;
+		this.matcher = matcher;
+		this.escapeString = escapeString;
+		this.supportMultiLineFiltering = supportMultiLineFiltering;
+		this.markLength = markLength;
+		utf8 = "UTF-8".equals(charset.name());
+		ascii = "US-ASCII".equals(charset.name());
+		for (char c = 0; c < candidates.length; c++) {
+			candidates[c] = matcher.isStart(c);
+		}
+		if (escapeString != null && escapeString.length() > 0) {
+			candidates[escapeString.charAt(0)] = true;
+		}
+		// a character takes up to three bytes in UTF-8
+		reach = (long) markLength * (utf8 ? 3 : 1);
+	}
+
+	/**
+	 * @param encoding
+	 *            encoding of the files, <code>null</code> or empty for the
+	 *            platform default
+	 * @return a splicer, or <code>null</code> if the encoding, the delimiters
+	 *         or the escape string are not supported
+	 */
+	static LiteralSplicer of(String encoding, DelimiterMatcher matcher, String escapeString,
+			boolean supportMultiLineFiltering, int markLength) {
+		Charset charset;
+		try {
+			charset = encoding == null || encoding.length() == 0 ? Charset.defaultCharset() : Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			// the reader reports it
+			return null;
+		}
+		String name = charset.name();
+		if (!"UTF-8".equals(name) && !"ISO-8859-1".equals(name) && !"US-ASCII".equals(name)) {
+			return null;
+		}
+		for (int spec = 0; spec < matcher.size(); spec++) {
+			if (!isAscii(matcher.getBegin(spec)) || !isAscii(matcher.getEnd(spec))) {
+				return null;
+			}
+		}
+		if (escapeString != null && !isAscii(escapeString)) {
+			return null;
+		}
+		return new LiteralSplicer(charset, matcher, escapeString, supportMultiLineFiltering, markLength);
+	}
+
+	private static boolean isAscii(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return false, without writing anything, if the file does not decode
+	 *         cleanly and must be filtered by the reader
+	 */
+	boolean filter(File from, File to, EnhencerWrappers wrapper, TokenListener tokenListener,
+			LookaheadListener lookaheadListener) throws IOException {
+		FileInputStream instream = null;
+		FileOutputStream outstream = null;
+		try {
+			instream = new FileInputStream(from);
+			FileChannel in = instream.getChannel();
+			long[] ranges = scan(in);
+			if (ranges == null) {
+				return false;
+			}
+
+			outstream = new FileOutputStream(to);
+			FileChannel out = outstream.getChannel();
+			OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(out));
+			ByteTokenFilter filter = null;
+			long copied = 0;
+			for (int i = 0; i + 1 < ranges.length; i += 2) {
+				long start = ranges[i];
+				long end = ranges[i + 1];
+				transfer(in, copied, start - copied, out);
+				if (filter == null) {
+					filter = new ByteTokenFilter(charset, matcher, escapeString, supportMultiLineFiltering,
+							markLength, wrapper, tokenListener, lookaheadListener);
+				}
+				filter.filter(in, start, end, buffered);
+				buffered.flush();
+				copied = end;
+			}
+			transfer(in, copied, ranges[ranges.length - 1] - copied, out);
+			buffered.close();
+			outstream = null;
+			return true;
+		} finally {
+			IOUtil.close(instream);
+			IOUtil.close(outstream);
+		}
+	}
+
+	/**
+	 * @return start and end of the ranges to filter, pairwise, followed by the
+	 *         length of the file, or <code>null</code> if the file does not
+	 *         decode cleanly
+	 */
+	private long[] scan(FileChannel in) throws IOException {
+		long[] ranges = new long[8];
+		int count = 0;
+		long start = -1;
+		long last = -1;
+		long end = -1;
+
+		// UTF-8 validation: continuation bytes pending and the bounds of the
+		// next one
+		int pending = 0;
+		int lower = 0x80;
+		int upper = 0xBF;
+
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		byte[] bytes = buffer.array();
+		long offset = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			int i = 0;
+			while (i < read) {
+				if (pending > 0) {
+					int b = bytes[i++] & 0xFF;
+					if (b < lower || b > upper) {
+						return null;
+					}
+					pending--;
+					lower = 0x80;
+					upper = 0xBF;
+					continue;
+				}
+
+				// plain ASCII characters need no attention until the end of the
+				// open range is due
+				int stop = read;
+				if (start >= 0 && end < 0) {
+					long due = last + reach - offset;
+					if (due <= i) {
+						end = offset + i;
+					} else if (due < read) {
+						stop = (int) due;
+					}
+				}
+				while (i < stop && bytes[i] >= 0 && !candidates[bytes[i]]) {
+					i++;
+				}
+				if (i == stop) {
+					continue;
+				}
+
+				int b = bytes[i] & 0xFF;
+				if (b < 0x80) {
+					long position = offset + i;
+					if (start >= 0 && end >= 0) {
+						if (count + 2 > ranges.length) {
+							long[] grown = new long[ranges.length * 2];
+							System.arraycopy(ranges, 0, grown, 0, count);
+							ranges = grown;
+						}
+						ranges[count++] = start;
+						ranges[count++] = end;
+						start = -1;
+					}
+					if (start < 0) {
+						start = position;
+						end = -1;
+					}
+					last = position;
+				} else if (ascii) {
+					return null;
+				} else if (utf8) {
+					if (b >= 0xC2 && b <= 0xDF) {
+						pending = 1;
+					} else if (b == 0xE0) {
+						pending = 2;
+						lower = 0xA0;
+					} else if (b == 0xED) {
+						pending = 2;
+						upper = 0x9F;
+					} else if (b >= 0xE1 && b <= 0xEF) {
+						pending = 2;
+					} else if (b == 0xF0) {
+						pending = 3;
+						lower = 0x90;
+					} else if (b >= 0xF1 && b <= 0xF3) {
+						pending = 3;
+					} else if (b == 0xF4) {
+						pending = 3;
+						upper = 0x8F;
+					} else {
+						return null;
+					}
+				}
+				i++;
+			}
+			offset += read;
+			buffer.clear();
+		}
+		if (pending > 0) {
+			return null;
+		}
+
+		long[] result = new long[count + (start >= 0 ? 3 : 1)];
+		System.arraycopy(ranges, 0, result, 0, count);
+		if (start >= 0) {
+			result[count++] = start;
+			result[count++] = end >= 0 ? end : offset;
+		}
+		result[count] = offset;
+		return result;
+	}
+
+	private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+		while (count > 0) {
+			long transferred = in.transferTo(position, count, out);
+			if (transferred <= 0) {
+				throw new IOException("source file changed while being filtered");
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.netease.maven.filtering;
+
+import java.io.IOException;
+
+public interface LookaheadListener {
+	/**
+	 * Called once per file for the first expression whose end token was not
+	 * found within the lookahead, it is copied unfiltered.
+	 * 
+	 * @param expression
+	 *            the beginning of the expression
+	 * @throws IOException
+	 *             to stop filtering the file
+	 */
+	void lookaheadExceeded(String expression) throws IOException;
+}
@@ -1,11 +1,9 @@
 package com.netease.maven.filtering;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Set;
 
-import org.apache.maven.shared.filtering.BoundedReader;
 import org.apache.maven.shared.filtering.MultiDelimiterInterpolatorFilterReaderLineEnding;
 import org.codehaus.plexus.interpolation.InterpolationException;
 import org.codehaus.plexus.interpolation.Interpolator;
@@ -21,6 +19,15 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 
 	private RecursionInterceptor recursionInterceptor;
 
+	private TokenListener tokenListener;
+
+	private LookaheadListener lookaheadListener;
+
+	/**
+	 * the lookahead listener is told about the first expression only
+	 */
+	private boolean lookaheadReported;
+
 	/**
 	 * replacement text from a token
 	 */
@@ -46,16 +53,61 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	 */
 	private boolean interpolateWithPrefixPattern = true;
 
-	private String beginToken;
-
-	private String endToken;
-
 	private boolean supportMultiLineFiltering;
 
 	private static final int MAXIMUM_BUFFER_SIZE = 8192;
 
+	/**
+	 * number of resolved tokens remembered per reader, must be a power of two
+	 */
+	private static final int TOKEN_CACHE_SIZE = 64;
+
+	/**
+	 * characters of an unclosed expression passed to the lookahead listener
+	 */
+	static final int EXCERPT_LENGTH = 40;
+
+	/**
+	 * window over the underlying reader, always holds a whole token once a
+	 * candidate character has been seen
+	 */
+	private char[] buf;
+
+	/**
+	 * next unread position in the window
+	 */
+	private int pos = 0;
+
+	/**
+	 * end of the valid characters in the window
+	 */
+	private int limit = 0;
+
+	/**
+	 * window characters before this position are emitted as they are
+	 */
+	private int literalEnd = 0;
+
+	/**
+	 * true once the underlying reader is exhausted
+	 */
 	private boolean eof = false;
 
+	/**
+	 * compiled form of the delimiters, rebuilt lazily when they change
+	 */
+	private DelimiterMatcher matcher;
+
+	private final char[] single = new char[1];
+
+	/**
+	 * recently resolved tokens and their replacement, indexed by the hash of
+	 * the token characters so a repeated token needs no new key string
+	 */
+	private final String[] tokenKeys = new String[TOKEN_CACHE_SIZE];
+
+	private final String[] tokenValues = new String[TOKEN_CACHE_SIZE];
+
 	/**
 	 * This constructor uses default begin token ${ and default end token }.
 	 *
@@ -84,8 +136,7 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	 */
 	public MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding(Reader in, Interpolator interpolator,
 			RecursionInterceptor ri, boolean supportMultiLineFiltering) {
-		// wrap our own buffer, so we can use mark/reset safely.
-		super(new BufferedReader(in, MAXIMUM_BUFFER_SIZE));
+		super(in);
 
 		this.interpolator = interpolator;
 
@@ -109,6 +160,7 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	 * @return true/false.
 	 */
 	public boolean removeDelimiterSpec(String delimiterSpec) {
+		matcher = null;
 		return delimiters.remove(DelimiterSpecification.parse(delimiterSpec));
 	}
 
@@ -123,10 +175,24 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 			delimiters.add(DelimiterSpecification.parse(spec));
 			markLength += spec.length() * 2;
 		}
+		matcher = null;
 
 		return this;
 	}
 
+	/**
+	 * Shares an already compiled matcher, it must describe the same delimiters
+	 * as the ones given to {@link #setDelimiterSpecs(Set)}.
+	 *
+	 * @param matcher
+	 *            compiled delimiters.
+	 * @return this
+	 */
+	public AbstractEnhancerFilterReaderLineEnding setDelimiterMatcher(DelimiterMatcher matcher) {
+		this.matcher = matcher;
+		return this;
+	}
+
 	/**
 	 * Skips characters. This method will block until some characters are
 	 * available, an I/O error occurs, or the end of the stream is reached.
@@ -153,7 +219,9 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	}
 
 	/**
-	 * Reads characters into a portion of an array. This method will block until
+	 * Reads characters into a portion of an array. Literal text is copied from
+	 * the internal window in bulk; only a character that may start an escape
+	 * string or a begin token is examined further. This method will block until
 	 * some input is available, an I/O error occurs, or the end of the stream is
 	 * reached.
 	 *
@@ -170,18 +238,61 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	 *             If an I/O error occurs
 	 */
 	public int read(char cbuf[], int off, int len) throws IOException {
-		for (int i = 0; i < len; i++) {
-			int ch = read();
-			if (ch == -1) {
-				if (i == 0) {
-					return -1;
-				} else {
-					return i;
-				}
+		if (off < 0 || len < 0 || off + len > cbuf.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (matcher == null) {
+			matcher = DelimiterMatcher.of(delimiters);
+		}
+		final char escapeStart = useEscape ? getEscapeString().charAt(0) : 0;
+
+		int n = 0;
+		while (n < len) {
+			// drain the pending replacement first
+			if (replaceIndex > 0) {
+				int count = Math.min(replaceIndex, len - n);
+				int from = replaceData.length() - replaceIndex;
+				replaceData.getChars(from, from + count, cbuf, off + n);
+				replaceIndex -= count;
+				n += count;
+				continue;
+			}
+
+			if (pos >= limit && fill(1) == 0) {
+				break;
+			}
+
+			// escaped text is copied without looking for tokens
+			if (pos < literalEnd) {
+				int count = Math.min(literalEnd - pos, len - n);
+				System.arraycopy(buf, pos, cbuf, off + n, count);
+				n += count;
+				pos += count;
+				continue;
+			}
+
+			// copy the literal run up to the next candidate character
+			int runEnd = Math.min(limit, pos + (len - n));
+			int i = pos;
+			while (i < runEnd && !matcher.isStart(buf[i]) && !(useEscape && buf[i] == escapeStart)) {
+				i++;
+			}
+			if (i > pos) {
+				System.arraycopy(buf, pos, cbuf, off + n, i - pos);
+				n += i - pos;
+				pos = i;
+				continue;
+			}
+
+			int ch = readToken();
+			if (ch != -1) {
+				cbuf[off + n++] = (char) ch;
 			}
-			cbuf[off + i] = (char) ch;
 		}
-		return len;
+		return n == 0 ? -1 : n;
 	}
 
 	/**
@@ -194,178 +305,231 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 	 *             if the underlying stream throws an IOException during reading
 	 */
 	public int read() throws IOException {
-		if (replaceIndex > 0) {
-			return replaceData.charAt(replaceData.length() - (replaceIndex--));
-		}
-		if (eof) {
-			return -1;
-		}
-
-		BoundedReader in = new BoundedReader(this.in, markLength);
-
-		int ch = in.read();
-		if (ch == -1 || (ch == '\n' && !supportMultiLineFiltering)) {
-			return ch;
-		}
+		return read(single, 0, 1) == -1 ? -1 : single[0];
+	}
 
-		boolean inEscape = useEscape && ch == getEscapeString().charAt(0);
+	/**
+	 * Handles the candidate character at the current window position: an escape
+	 * string, a complete token or a plain character.
+	 *
+	 * @return the literal character to emit, or -1 when the output has been
+	 *         queued in the replacement data or as a literal window range
+	 */
+	private int readToken() throws IOException {
+		fill(markLength);
 
-		StringBuilder key = new StringBuilder();
+		int start = pos;
 
 		// have we found an escape string?
-		if (inEscape) {
-			for (int i = 0; i < getEscapeString().length(); i++) {
-				key.append((char) ch);
-
-				if (ch != getEscapeString().charAt(i) || ch == -1 || (ch == '\n' && !supportMultiLineFiltering)) {
-					// mismatch, EOF or EOL, no escape string here
-					in.reset();
-					inEscape = false;
-					key.setLength(0);
-					break;
+		if (useEscape && regionMatches(start, getEscapeString())) {
+			int next = start + getEscapeString().length();
+			if (next >= limit) {
+				// escape string at EOF, nothing to protect
+				literalEnd = next;
+			} else {
+				// escape means no luck, prevent parsing of the escaped
+				// character
+				if (matcher.match(buf, next, limit) > -1 && !isPreserveEscapeString()) {
+					pos = next;
 				}
-
-				ch = in.read();
-
+				literalEnd = next + 1;
 			}
-
+			return -1;
 		}
 
 		// have we found a delimiter?
-		int max = 0;
-		for (DelimiterSpecification spec : delimiters) {
-			String begin = spec.getBegin();
+		int spec = matcher.match(buf, start, limit);
+		if (spec == -1) {
+			pos++;
+			return buf[start];
+		}
 
-			// longest match wins
-			if (begin.length() < max) {
+		// we're committed, find the end token, EOL, EOF or the mark limit
+		String beginToken = matcher.getBegin(spec);
+		String endToken = matcher.getEnd(spec);
+		boolean nests = !beginToken.equals(endToken);
+		int bound = Math.min(limit, start + markLength) - endToken.length();
+		int end = -1;
+		int depth = 0;
+		boolean inDefault = false;
+		boolean endOfLine = false;
+		for (int i = start + beginToken.length(); i <= bound; i++) {
+			if (buf[i] == '\n' && !supportMultiLineFiltering) {
+				endOfLine = true;
+				break;
+			}
+			// expressions within a default value are closed first
+			if (nests && !inDefault) {
+				inDefault = buf[i] == '?';
+			} else if (nests && regionMatches(i, beginToken)) {
+				depth++;
+				i += beginToken.length() - 1;
 				continue;
 			}
-
-			for (int i = 0; i < begin.length(); i++) {
-				if (ch != begin.charAt(i) || ch == -1 || (ch == '\n' && !supportMultiLineFiltering)) {
-					// mismatch, EOF or EOL, no match
+			if (regionMatches(i, endToken)) {
+				if (depth == 0) {
+					end = i + endToken.length();
 					break;
 				}
-
-				if (i == begin.length() - 1) {
-
-					beginToken = spec.getBegin();
-					endToken = spec.getEnd();
-
-				}
-
-				ch = in.read();
-
+				depth--;
+				i += endToken.length() - 1;
 			}
-
-			in.reset();
-			in.skip(key.length());
-			ch = in.read();
-
 		}
 
-		// escape means no luck, prevent parsing of the escaped character, and
-		// return
-		if (inEscape) {
-
-			if (beginToken != null) {
-				if (!isPreserveEscapeString()) {
-					key.setLength(0);
-				}
+		// no endtoken? Write current char and continue in search for next
+		// expression
+		if (end == -1) {
+			if (!endOfLine && start + markLength <= limit) {
+				lookaheadExceeded(start);
 			}
-
-			beginToken = null;
-			endToken = null;
-
-			key.append((char) ch);
-
-			replaceData = key.toString();
-			replaceIndex = key.length();
-
-			return read();
-
+			pos++;
+			return buf[start];
 		}
 
-		// no match means no luck, reset and return
-		if (beginToken == null || beginToken.length() == 0 || endToken == null || endToken.length() == 0) {
-
-			in.reset();
-			return in.read();
-
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buf[i];
 		}
-
-		// we're committed, find the end token, EOL or EOF
-
-		key.append(beginToken);
-		in.reset();
-		in.skip(beginToken.length());
-		ch = in.read();
-
-		int endTokenSize = endToken.length();
-		int end = endTokenSize;
-		do {
-			if (ch == -1) {
-				break;
-			} else if (ch == '\n' && !supportMultiLineFiltering) {
-				// EOL
-				key.append((char) ch);
-				break;
+		int slot = (hash ^ (hash >>> 16)) & (TOKEN_CACHE_SIZE - 1);
+		if (tokenKeys[slot] != null && tokenEquals(tokenKeys[slot], start, end)) {
+			replaceData = tokenValues[slot];
+			replaceIndex = replaceData.length();
+			pos = end;
+			if (tokenListener != null) {
+				tokenListener.tokenResolved(tokenKeys[slot], replaceData);
 			}
+			return -1;
+		}
 
-			key.append((char) ch);
-
-			if (ch == this.endToken.charAt(endTokenSize - end)) {
-				end--;
-				if (end == 0) {
-					break;
-				}
+		// found endtoken? interpolate our key resolved above
+		String key = new String(buf, start, end - start);
+		String value;
+		try {
+			if (interpolateWithPrefixPattern) {
+				value = interpolator.interpolate(key, "", recursionInterceptor);
 			} else {
-				end = endTokenSize;
+				value = interpolator.interpolate(key, recursionInterceptor);
 			}
+		} catch (InterpolationException e) {
+			IllegalArgumentException error = new IllegalArgumentException(e.getMessage());
+			error.initCause(e);
 
-			ch = in.read();
-		} while (true);
+			throw error;
+		}
 
-		// reset back to no tokens
-		beginToken = null;
-		endToken = null;
+		// write away the value if present, otherwise the key unmodified
+		replaceData = value != null ? value : key;
+		replaceIndex = replaceData.length();
+		pos = end;
+
+		tokenKeys[slot] = key;
+		tokenValues[slot] = replaceData;
+		if (tokenListener != null) {
+			tokenListener.tokenResolved(key, replaceData);
+		}
+		return -1;
+	}
 
-		// found endtoken? interpolate our key resolved above
-		String value = null;
-		if (end == 0) {
-			try {
-				if (interpolateWithPrefixPattern) {
-					value = interpolator.interpolate(key.toString(), "", recursionInterceptor);
-				} else {
-					value = interpolator.interpolate(key.toString(), recursionInterceptor);
-				}
-			} catch (InterpolationException e) {
-				IllegalArgumentException error = new IllegalArgumentException(e.getMessage());
-				error.initCause(e);
+	private boolean tokenEquals(String key, int start, int end) {
+		if (key.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (buf[i] != key.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-				throw error;
+	private boolean regionMatches(int at, String token) {
+		int length = token.length();
+		if (at + length > limit) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = buf[at + i];
+			if (c != token.charAt(i) || (c == '\n' && !supportMultiLineFiltering)) {
+				return false;
 			}
-		} else {
-			// no endtoken? Write current char and continue in search for next
-			// expression
-			in.reset();
-			return in.read();
 		}
+		return true;
+	}
 
-		// write away the value if present, otherwise the key unmodified
-		if (value != null) {
-			replaceData = value;
-			replaceIndex = value.length();
-		} else {
-			replaceData = key.toString();
-			replaceIndex = key.length();
+	/**
+	 * The window ended the search for the end token of the expression at
+	 * <code>start</code> before the input did.
+	 */
+	private void lookaheadExceeded(int start) throws IOException {
+		if (lookaheadListener == null || lookaheadReported) {
+			return;
+		}
+		lookaheadReported = true;
+		int end = start;
+		while (end < limit && end - start < Math.min(EXCERPT_LENGTH, markLength) && buf[end] != '\n') {
+			end++;
+		}
+		lookaheadListener.lookaheadExceeded(new String(buf, start, end - start));
+	}
+
+	/**
+	 * Makes at least <code>wanted</code> characters available in the window
+	 * unless the underlying reader is exhausted first.
+	 *
+	 * @return the number of characters available from the current position
+	 */
+	private int fill(int wanted) throws IOException {
+		if (buf == null) {
+			buf = new char[MAXIMUM_BUFFER_SIZE + markLength];
+		}
+		if (limit - pos >= wanted || eof) {
+			return limit - pos;
 		}
 
-		if (ch == -1) {
-			eof = true;
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			literalEnd = Math.max(0, literalEnd - pos);
+			pos = 0;
+		}
+		if (wanted > buf.length) {
+			char[] grown = new char[wanted + MAXIMUM_BUFFER_SIZE];
+			System.arraycopy(buf, 0, grown, 0, limit);
+			buf = grown;
+		}
+		while (limit < wanted && !eof) {
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read == -1) {
+				eof = true;
+			} else {
+				limit += read;
+			}
 		}
-		return read();
+		return limit - pos;
+	}
 
+	/** {@inheritDoc} */
+	public boolean ready() throws IOException {
+		return replaceIndex > 0 || pos < limit || (!eof && in.ready());
+	}
+
+	/**
+	 * Mark is not supported, the window is consumed while scanning.
+	 *
+	 * @return false
+	 */
+	public boolean markSupported() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	public void mark(int readAheadLimit) throws IOException {
+		throw new IOException("mark() not supported");
+	}
+
+	/** {@inheritDoc} */
+	public void reset() throws IOException {
+		throw new IOException("reset() not supported");
 	}
 
 	/**
@@ -384,6 +548,27 @@ public class MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding extends Ab
 		this.interpolateWithPrefixPattern = interpolateWithPrefixPattern;
 	}
 
+	/**
+	 * @param tokenListener
+	 *            notified of every replaced token, may be <code>null</code>
+	 * @return this
+	 */
+	public AbstractEnhancerFilterReaderLineEnding setTokenListener(TokenListener tokenListener) {
+		this.tokenListener = tokenListener;
+		return this;
+	}
+
+	/**
+	 * @param lookaheadListener
+	 *            told about the first expression not closed within the
+	 *            lookahead, may be <code>null</code>
+	 * @return this
+	 */
+	public AbstractEnhancerFilterReaderLineEnding setLookaheadListener(LookaheadListener lookaheadListener) {
+		this.lookaheadListener = lookaheadListener;
+		return this;
+	}
+
 	/**
 	 * @return {@link RecursionInterceptor}
 	 */
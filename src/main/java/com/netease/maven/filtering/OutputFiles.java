@@ -0,0 +1,333 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.maven.shared.utils.io.IOUtil;
+
+/**
+ * Output side of one resources execution. Directories are created once per
+ * execution, and files are written to a temporary file next to their
+ * destination, which then replaces the destination by an atomic move unless
+ * both hold the same bytes. An unchanged output thus keeps its modification
+ * time, and readers of the destination never see a partly written file.
+ */
+final class OutputFiles {
+
+	private static final String TEMPORARY_PREFIX = ".filtering-";
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final FilenameFilter TEMPORARY_FILES = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.startsWith(TEMPORARY_PREFIX) && name.endsWith(TEMPORARY_SUFFIX);
+		}
+	};
+
+	private static final Method MOVE;
+
+	private static final Method TO_PATH;
+
+	private static final Object MOVE_OPTIONS;
+
+	private static final Method GET_ATTRIBUTE;
+
+	private static final Object NO_LINK_OPTIONS;
+
+	private static final Method GET_PERMISSIONS;
+
+	private static final Method SET_PERMISSIONS;
+
+	static {
+		Method move = null;
+		Method toPath = null;
+		Object moveOptions = null;
+		Method getAttribute = null;
+		Object noLinkOptions = null;
+		Method getPermissions = null;
+		Method setPermissions = null;
+		try {
+			Class<?> path = Class.forName("java.nio.file.Path");
+			Class<?> copyOption = Class.forName("java.nio.file.CopyOption");
+			Class<?> standardCopyOption = Class.forName("java.nio.file.StandardCopyOption");
+			moveOptions = Array.newInstance(copyOption, 2);
+			Array.set(moveOptions, 0, standardCopyOption.getField("REPLACE_EXISTING").get(null));
+			Array.set(moveOptions, 1, standardCopyOption.getField("ATOMIC_MOVE").get(null));
+			toPath = File.class.getMethod("toPath");
+			move = Class.forName("java.nio.file.Files").getMethod("move", path, path, moveOptions.getClass());
+			noLinkOptions = Array.newInstance(Class.forName("java.nio.file.LinkOption"), 0);
+			getAttribute = Class.forName("java.nio.file.Files").getMethod("getAttribute", path, String.class,
+					noLinkOptions.getClass());
+			getPermissions = Class.forName("java.nio.file.Files").getMethod("getPosixFilePermissions", path,
+					noLinkOptions.getClass());
+			setPermissions = Class.forName("java.nio.file.Files").getMethod("setPosixFilePermissions", path,
+					Set.class);
+		} catch (Exception e) {
+			// before Java 7, rename
+		}
+		MOVE = move;
+		TO_PATH = toPath;
+		MOVE_OPTIONS = moveOptions;
+		GET_ATTRIBUTE = getAttribute;
+		NO_LINK_OPTIONS = noLinkOptions;
+		GET_PERMISSIONS = getPermissions;
+		SET_PERMISSIONS = setPermissions;
+	}
+
+	/**
+	 * directories created or found during this execution, only used by the
+	 * thread resolving the destinations
+	 */
+	private final Set<File> directories = new HashSet<File>();
+
+	/**
+	 * Creates the directory of <code>file</code> unless it was already seen
+	 * during this execution. A directory seen for the first time is cleared
+	 * of the temporary files an interrupted execution left, so they do not
+	 * end up packaged with the outputs.
+	 */
+	void createParent(File file) {
+		File parent = file.getParentFile();
+		if (parent != null && directories.add(parent) && !parent.mkdirs()) {
+			File[] stale = parent.listFiles(TEMPORARY_FILES);
+			if (stale != null) {
+				for (File temporary : stale) {
+					temporary.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a new empty file in the directory of <code>destination</code>
+	 */
+	static File createTemporary(File destination) throws IOException {
+		return File.createTempFile(TEMPORARY_PREFIX, TEMPORARY_SUFFIX, destination.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Replaces <code>destination</code> by a copy of its own if it may be a
+	 * hard link to <code>source</code>, as {@link ResourceCopier#HARDLINK}
+	 * leaves it, before it is written in place. Where the link count cannot
+	 * be read, a destination of the same size and modification time as the
+	 * source is taken as a link.
+	 */
+	static void breakLink(File source, File destination) throws IOException {
+		if (!destination.isFile() || destination.length() != source.length()
+				|| destination.lastModified() != source.lastModified() || getLinkCount(destination) == 1) {
+			return;
+		}
+		File temporary = createTemporary(destination);
+		try {
+			InputStream in = new FileInputStream(destination);
+			try {
+				OutputStream out = new FileOutputStream(temporary);
+				try {
+					IOUtil.copy(in, out, BUFFER_SIZE);
+				} finally {
+					out.close();
+				}
+			} finally {
+				IOUtil.close(in);
+			}
+			temporary.setLastModified(destination.lastModified());
+			move(temporary, destination);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * @return the number of hard links to <code>file</code>, -1 if unknown
+	 */
+	private static int getLinkCount(File file) {
+		if (GET_ATTRIBUTE == null) {
+			return -1;
+		}
+		try {
+			return ((Number) GET_ATTRIBUTE.invoke(null, TO_PATH.invoke(file), "unix:nlink", NO_LINK_OPTIONS))
+					.intValue();
+		} catch (IllegalAccessException e) {
+			return -1;
+		} catch (InvocationTargetException e) {
+			// not a unix file system
+			return -1;
+		}
+	}
+
+	/**
+	 * Moves <code>temporary</code> to <code>destination</code>, or deletes it
+	 * if <code>destination</code> already has the same content.
+	 *
+	 * @return true if <code>destination</code> changed
+	 */
+	static boolean replace(File temporary, File destination) throws IOException {
+		if (destination.isFile() && destination.length() == temporary.length()
+				&& isSameContent(temporary, destination)) {
+			temporary.delete();
+			return false;
+		}
+		move(temporary, destination);
+		return true;
+	}
+
+	/**
+	 * Same as {@link #replace(File, File)} for content held in memory.
+	 *
+	 * @return true if <code>destination</code> changed
+	 */
+	static boolean replace(byte[] content, File destination) throws IOException {
+		if (destination.isFile() && destination.length() == content.length && isSameContent(content, destination)) {
+			return false;
+		}
+		File temporary = createTemporary(destination);
+		try {
+			OutputStream out = new FileOutputStream(temporary);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			move(temporary, destination);
+		} finally {
+			temporary.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces <code>destination</code> by <code>temporary</code>, atomically
+	 * where the runtime (Java 7 and later) and the file system support it.
+	 * Otherwise the old destination is moved aside until the new one is in
+	 * place, and put back if that failed. The caller deletes
+	 * <code>temporary</code> if it is left.
+	 * <p>
+	 * An existing destination keeps its permissions.
+	 */
+	static void move(File temporary, File destination) throws IOException {
+		if (destination.exists()) {
+			copyPermissions(destination, temporary);
+		}
+		if (atomicMove(temporary, destination) || temporary.renameTo(destination)) {
+			return;
+		}
+		// renaming over an existing file fails on some platforms
+		File previous = createTemporary(destination);
+		previous.delete();
+		if (destination.renameTo(previous)) {
+			if (temporary.renameTo(destination)) {
+				previous.delete();
+				return;
+			}
+			previous.renameTo(destination);
+		}
+		throw new IOException("Cannot replace " + destination.getPath());
+	}
+
+	/**
+	 * Gives <code>to</code> the POSIX permissions of <code>from</code> where
+	 * the runtime (Java 7 and later) and the file system support them,
+	 * otherwise the permissions {@link File} knows of.
+	 */
+	private static void copyPermissions(File from, File to) {
+		if (GET_PERMISSIONS != null) {
+			try {
+				SET_PERMISSIONS.invoke(null, TO_PATH.invoke(to),
+						GET_PERMISSIONS.invoke(null, TO_PATH.invoke(from), NO_LINK_OPTIONS));
+				return;
+			} catch (IllegalAccessException e) {
+				// fall through
+			} catch (InvocationTargetException e) {
+				// not a POSIX file system
+			}
+		}
+		to.setExecutable(from.canExecute(), false);
+		to.setReadable(from.canRead(), false);
+		to.setWritable(from.canWrite(), false);
+	}
+
+	/**
+	 * @return false if the move was not done, both files are then left as
+	 *         they were
+	 */
+	private static boolean atomicMove(File from, File to) {
+		if (MOVE == null) {
+			return false;
+		}
+		try {
+			MOVE.invoke(null, TO_PATH.invoke(from), TO_PATH.invoke(to), MOVE_OPTIONS);
+			return true;
+		} catch (IllegalAccessException e) {
+			return false;
+		} catch (InvocationTargetException e) {
+			// atomic moves not supported, or the move failed
+			return false;
+		}
+	}
+
+	private static boolean isSameContent(byte[] content, File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int offset = 0;
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				if (offset + n > content.length) {
+					return false;
+				}
+				for (int i = 0; i < n; i++) {
+					if (buffer[i] != content[offset + i]) {
+						return false;
+					}
+				}
+				offset += n;
+			}
+			return offset == content.length;
+		} finally {
+			IOUtil.close(in);
+		}
+	}
+
+	private static boolean isSameContent(File a, File b) throws IOException {
+		InputStream inA = null;
+		InputStream inB = null;
+		try {
+			inA = new FileInputStream(a);
+			inB = new FileInputStream(b);
+			byte[] bufferA = new byte[BUFFER_SIZE];
+			byte[] bufferB = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = inA.read(bufferA)) != -1) {
+				int read = 0;
+				while (read < n) {
+					int m = inB.read(bufferB, read, n - read);
+					if (m == -1) {
+						return false;
+					}
+					read += m;
+				}
+				for (int i = 0; i < n; i++) {
+					if (bufferA[i] != bufferB[i]) {
+						return false;
+					}
+				}
+			}
+			return inB.read() == -1;
+		} finally {
+			IOUtil.close(inA);
+			IOUtil.close(inB);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.shared.filtering.MavenFilteringException;
+
+/**
+ * Filters independent files on a bounded worker pool. The largest files are
+ * scheduled first, at most one file per worker is open for reading and the
+ * bytes of the source files in flight are capped. When several files fail,
+ * the failure of the first one in the given order is reported whatever the
+ * timing was.
+ */
+final class ParallelFileFilter {
+
+	/**
+	 * filters one file into its destination
+	 */
+	interface Copy {
+		void copy(File from, File to) throws MavenFilteringException;
+	}
+
+	private static final int KB = 1024;
+
+	private final int threads;
+
+	private final Semaphore inFlight;
+
+	private final int maxPermits;
+
+	ParallelFileFilter(int threads, long maxInFlightBytes) {
+		this.threads = threads;
+		this.maxPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / KB));
+		this.inFlight = new Semaphore(maxPermits);
+	}
+
+	void copy(final List<File> sources, final List<File> destinations, final Copy copy)
+			throws MavenFilteringException {
+		List<Integer> schedule = new ArrayList<Integer>(sources.size());
+		final long[] sizes = new long[sources.size()];
+		for (int i = 0; i < sources.size(); i++) {
+			schedule.add(i);
+			sizes[i] = sources.get(i).length();
+		}
+		Collections.sort(schedule, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return sizes[a] < sizes[b] ? 1 : sizes[a] > sizes[b] ? -1 : a - b;
+			}
+		});
+
+		final Throwable[] failures = new Throwable[sources.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, sources.size()),
+				new WorkerFactory("filtering-enhancer-"));
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(schedule.size());
+			for (final int index : schedule) {
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						int permits = (int) Math.min(maxPermits, Math.max(1, sizes[index] / KB));
+						inFlight.acquireUninterruptibly(permits);
+						try {
+							copy.copy(sources.get(index), destinations.get(index));
+						} catch (Throwable e) {
+							failures[index] = e;
+						} finally {
+							inFlight.release(permits);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MavenFilteringException("Interrupted while filtering resources", e);
+				} catch (Exception e) {
+					throw new MavenFilteringException("Failed filtering resources", e);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		rethrowFirst(failures);
+	}
+
+	/**
+	 * Throws the first failure of <code>failures</code>, if any.
+	 */
+	static void rethrowFirst(Throwable[] failures) throws MavenFilteringException {
+		for (Throwable failure : failures) {
+			if (failure instanceof MavenFilteringException) {
+				throw (MavenFilteringException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new MavenFilteringException(failure.getMessage(), (Exception) failure);
+			}
+		}
+	}
+
+	static class WorkerFactory implements ThreadFactory {
+		private final String prefix;
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		WorkerFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
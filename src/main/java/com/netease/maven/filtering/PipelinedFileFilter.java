@@ -0,0 +1,157 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.shared.filtering.MavenFilteringException;
+
+import com.netease.maven.filtering.ParallelFileFilter.WorkerFactory;
+
+/**
+ * Filters independent files in three stages: sources are read ahead on I/O
+ * threads, filtered on a pool sized for the CPU work and written back on I/O
+ * threads, so the latency of slow file systems overlaps with filtering. The
+ * I/O threads are virtual threads on Java 21 and later, a small platform pool
+ * otherwise.
+ * <p>
+ * Files enter the pipeline in the given order; the number of files and the
+ * bytes of the source files between their read and their write are bounded.
+ * When several files fail, the failure of the first one in the given order is
+ * reported whatever the timing was.
+ */
+final class PipelinedFileFilter {
+
+	/**
+	 * the stages of one file, each called once on its own thread
+	 *
+	 * @param <R>
+	 *            what the read stage hands to the filter stage
+	 * @param <F>
+	 *            what the filter stage hands to the write stage
+	 */
+	interface Stages<R, F> {
+		R read(File from) throws Exception;
+
+		/**
+		 * @return what to write, or <code>null</code> if the file is done
+		 */
+		F filter(File from, File to, R read) throws Exception;
+
+		void write(File from, File to, F filtered) throws Exception;
+	}
+
+	private static final int KB = 1024;
+
+	/**
+	 * platform threads reading and writing when virtual threads are missing
+	 */
+	private static final int IO_THREADS = 4;
+
+	private final int threads;
+
+	private final int maxPermits;
+
+	private final int maxFiles;
+
+	/**
+	 * @param threads
+	 *            threads of the filter stage
+	 * @param maxInFlightBytes
+	 *            bound of the source bytes between read and write
+	 */
+	PipelinedFileFilter(int threads, long maxInFlightBytes) {
+		this.threads = Math.max(1, threads);
+		this.maxPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / KB));
+		this.maxFiles = 4 * this.threads + IO_THREADS;
+	}
+
+	<R, F> void copy(final List<File> sources, final List<File> destinations, final Stages<R, F> stages)
+			throws MavenFilteringException {
+		final int size = sources.size();
+		final Throwable[] failures = new Throwable[size];
+		final CountDownLatch done = new CountDownLatch(size);
+		final Semaphore inFlight = new Semaphore(maxPermits);
+		final Semaphore files = new Semaphore(maxFiles);
+		final ExecutorService io = newIoExecutor();
+		final ExecutorService cpu = Executors.newFixedThreadPool(Math.min(threads, size),
+				new WorkerFactory("filtering-enhancer-"));
+		try {
+			for (int i = 0; i < size; i++) {
+				final int index = i;
+				final File from = sources.get(index);
+				final File to = destinations.get(index);
+				final int permits = (int) Math.min(maxPermits, Math.max(1, from.length() / KB));
+				files.acquireUninterruptibly();
+				inFlight.acquireUninterruptibly(permits);
+				final Runnable finish = new Runnable() {
+					public void run() {
+						inFlight.release(permits);
+						files.release();
+						done.countDown();
+					}
+				};
+				io.execute(new Runnable() {
+					public void run() {
+						try {
+							final R read = stages.read(from);
+							cpu.execute(new Runnable() {
+								public void run() {
+									try {
+										final F filtered = stages.filter(from, to, read);
+										if (filtered == null) {
+											finish.run();
+											return;
+										}
+										io.execute(new Runnable() {
+											public void run() {
+												try {
+													stages.write(from, to, filtered);
+												} catch (Throwable e) {
+													failures[index] = e;
+												} finally {
+													finish.run();
+												}
+											}
+										});
+									} catch (Throwable e) {
+										failures[index] = e;
+										finish.run();
+									}
+								}
+							});
+						} catch (Throwable e) {
+							failures[index] = e;
+							finish.run();
+						}
+					}
+				});
+			}
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MavenFilteringException("Interrupted while filtering resources", e);
+		} finally {
+			io.shutdownNow();
+			cpu.shutdownNow();
+		}
+
+		ParallelFileFilter.rethrowFirst(failures);
+	}
+
+	/**
+	 * @return a virtual thread per task executor on Java 21 and later, a small
+	 *         pool of daemon threads otherwise
+	 */
+	private static ExecutorService newIoExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			// before Java 21
+			return Executors.newFixedThreadPool(IO_THREADS, new WorkerFactory("filtering-enhancer-io-"));
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.shared.filtering.PropertyUtils;
+import org.apache.maven.shared.utils.StringUtils;
+import org.apache.maven.shared.utils.io.IOUtil;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Filter properties files loaded during one Maven session, so a file shared by
+ * the modules of a reactor is parsed and interpolated once. A loaded file is
+ * reused while its canonical path, size and modification time and the base
+ * properties it was interpolated with are all the same. The system properties
+ * {@link PropertyUtils} falls back to are taken as the ones of the session,
+ * which are part of the base properties.
+ * <p>
+ * The returned properties are shared and must not be modified.
+ * <p>
+ * The cache is kept by the {@link MavenExecutionRequest} of the session:
+ * <code>-T</code> builds give each module a clone of the
+ * {@link MavenSession}, the request is the one object all of them share for
+ * the whole build.
+ */
+final class PropertiesFileCache {
+
+	private static final Map<Object, PropertiesFileCache> BUILDS = new WeakHashMap<Object, PropertiesFileCache>();
+
+	private final ConcurrentMap<String, Properties> loaded = new ConcurrentHashMap<String, Properties>();
+
+	private final AtomicInteger hits = new AtomicInteger();
+
+	private final AtomicInteger misses = new AtomicInteger();
+
+	private PropertiesFileCache() {
+	}
+
+	/**
+	 * @param session
+	 *            the current session, may be <code>null</code>
+	 * @return the cache of the build of the session, <code>null</code> without
+	 *         a session
+	 */
+	static PropertiesFileCache of(MavenSession session) {
+		if (session == null) {
+			return null;
+		}
+		Object build = session.getRequest() != null ? session.getRequest() : session;
+		synchronized (BUILDS) {
+			PropertiesFileCache cache = BUILDS.get(build);
+			if (cache == null) {
+				cache = new PropertiesFileCache();
+				BUILDS.put(build, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * @param baseFingerprint
+	 *            {@link LayeredProperties#fingerprint()} of the base
+	 *            properties, or the key of the file loaded before over them
+	 * @return the key of <code>file</code> loaded over the base properties,
+	 *         which is also the fingerprint of the base properties with the
+	 *         file on top
+	 */
+	static String key(File file, String baseFingerprint) throws IOException {
+		File canonical = file.getCanonicalFile();
+		return FilteringManifest.hash(canonical.getPath() + '\n' + canonical.length() + '\n'
+				+ canonical.lastModified() + '\n' + baseFingerprint);
+	}
+
+	/**
+	 * Same as {@link #loadPropertyFile(File, LayeredProperties)}.
+	 *
+	 * @param key
+	 *            {@link #key(File, String)} of the file over
+	 *            <code>baseProps</code>
+	 */
+	Properties load(File file, String key, LayeredProperties baseProps, Logger logger) throws IOException {
+		Properties properties = loaded.get(key);
+		if (properties != null) {
+			int hit = hits.incrementAndGet();
+			if (logger.isDebugEnabled()) {
+				logger.debug("filter file " + file + " taken from cache (hits " + hit + ", misses " + misses.get()
+						+ ")");
+			}
+			return properties;
+		}
+
+		properties = loadPropertyFile(file, baseProps);
+		loaded.put(key, properties);
+		int miss = misses.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug("filter file " + file + " loaded (hits " + hits.get() + ", misses " + miss + ")");
+		}
+		return properties;
+	}
+
+	/**
+	 * Same as {@link PropertyUtils#loadPropertyFile(File, Properties)}, the
+	 * base properties are read through the view instead of being copied
+	 * together with the file.
+	 */
+	static Properties loadPropertyFile(File file, LayeredProperties baseProps) throws IOException {
+		if (!file.exists()) {
+			throw new FileNotFoundException(file.toString());
+		}
+		Properties fileProps = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			fileProps.load(in);
+		} finally {
+			IOUtil.close(in);
+		}
+
+		// every value is resolved against the values as read
+		LayeredProperties combinedProps = baseProps.over(fileProps);
+		Map<String, String> resolved = new HashMap<String, String>();
+		for (Object key : fileProps.keySet()) {
+			String k = (String) key;
+			resolved.put(k, getPropertyValue(k, combinedProps));
+		}
+		fileProps.putAll(resolved);
+		return fileProps;
+	}
+
+	/**
+	 * Same as <code>PropertyUtils.getPropertyValue</code>, unknown keys fall
+	 * back to the system properties.
+	 */
+	private static String getPropertyValue(String k, LayeredProperties p) {
+		String v = p.getProperty(k);
+		String ret = "";
+		int idx, idx2;
+
+		while ((idx = v.indexOf("${")) >= 0) {
+			// append prefix to result
+			ret += v.substring(0, idx);
+
+			// strip prefix from original
+			v = v.substring(idx + 2);
+
+			// if no matching } then bail
+			idx2 = v.indexOf('}');
+			if (idx2 < 0) {
+				break;
+			}
+
+			// strip out the key and resolve it
+			// resolve the key/value for the ${statement}
+			String nk = v.substring(0, idx2);
+			v = v.substring(idx2 + 1);
+			String nv = p.getProperty(nk);
+
+			// try global environment..
+			if (nv == null && !StringUtils.isEmpty(nk)) {
+				nv = System.getProperty(nk);
+			}
+
+			// if the key cannot be resolved,
+			// leave it alone ( and don't parse again )
+			// else prefix the original string with the
+			// resolved property ( so it can be parsed further )
+			// taking recursion into account.
+			if (nv == null || nv.equals(k) || k.equals(nk)) {
+				ret += "${" + nk + "}";
+			} else {
+				v = nv + v;
+			}
+		}
+		return ret + v;
+	}
+}
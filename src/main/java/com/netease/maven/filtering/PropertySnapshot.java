@@ -0,0 +1,183 @@
+package com.netease.maven.filtering;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Read-only merge of property maps, stored in an open addressing table. A
+ * lookup is one probe sequence over plain arrays, without the lock every
+ * {@link Properties} read takes, so the files filtered in parallel do not
+ * contend on it.
+ * <p>
+ * Values are kept as they are, a value that is not a string still hides the
+ * lower maps the way <code>putAll</code> would. Entries whose key is not a
+ * string are left out, <code>getProperty</code> cannot reach them.
+ */
+final class PropertySnapshot extends AbstractMap<String, Object> {
+
+	private final String[] keys;
+
+	private final Object[] values;
+
+	private final int[] hashes;
+
+	private final int mask;
+
+	private final int size;
+
+	private volatile String fingerprint;
+
+	/**
+	 * @param hiddenBelow
+	 *            number of the first maps whose entries are left out where
+	 *            <code>hidden</code> has the key
+	 */
+	private PropertySnapshot(Map<?, ?>[] maps, int hiddenBelow, Map<?, ?> hidden) {
+		int total = 0;
+		for (Map<?, ?> map : maps) {
+			total += map.size();
+		}
+		int capacity = 2;
+		while (capacity < total * 2) {
+			capacity <<= 1;
+		}
+		keys = new String[capacity];
+		values = new Object[capacity];
+		hashes = new int[capacity];
+		mask = capacity - 1;
+
+		int count = 0;
+		for (int m = 0; m < maps.length; m++) {
+			Map<?, ?> map = maps[m];
+			synchronized (map) {
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					if (!(entry.getKey() instanceof String) || m < hiddenBelow && hidden.get(entry.getKey()) != null) {
+						continue;
+					}
+					String key = (String) entry.getKey();
+					int hash = spread(key.hashCode());
+					int slot = hash & mask;
+					while (keys[slot] != null && !(hashes[slot] == hash && keys[slot].equals(key))) {
+						slot = (slot + 1) & mask;
+					}
+					if (keys[slot] == null) {
+						keys[slot] = key;
+						hashes[slot] = hash;
+						count++;
+					}
+					values[slot] = entry.getValue();
+				}
+			}
+		}
+		size = count;
+	}
+
+	/**
+	 * @param maps
+	 *            the maps to merge, lowest precedence first, they are copied
+	 * @return the snapshot
+	 */
+	static PropertySnapshot of(Map<?, ?>... maps) {
+		return new PropertySnapshot(maps, 0, null);
+	}
+
+	/**
+	 * Same as {@link #of(Map...)}, meant to be looked up before
+	 * <code>hidden</code>: the entries of the first <code>hiddenBelow</code>
+	 * maps that <code>hidden</code> would hide are left out.
+	 */
+	static PropertySnapshot over(Map<?, ?> hidden, int hiddenBelow, Map<?, ?>... maps) {
+		return new PropertySnapshot(maps, hiddenBelow, hidden);
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		int hash = spread(key.hashCode());
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			String candidate = keys[slot];
+			if (candidate == null) {
+				return null;
+			}
+			if (hashes[slot] == hash && candidate.equals(key)) {
+				return values[slot];
+			}
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+					private int next = advance(0);
+
+					private int advance(int from) {
+						while (from < keys.length && keys[from] == null) {
+							from++;
+						}
+						return from;
+					}
+
+					public boolean hasNext() {
+						return next < keys.length;
+					}
+
+					public Map.Entry<String, Object> next() {
+						if (next >= keys.length) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(keys[next],
+								values[next]);
+						next = advance(next + 1);
+						return entry;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return {@link LayeredProperties#fingerprint(Map)} of the snapshot,
+	 *         computed once
+	 */
+	String fingerprint() {
+		String computed = fingerprint;
+		if (computed == null) {
+			computed = LayeredProperties.fingerprint(this);
+			fingerprint = computed;
+		}
+		return computed;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
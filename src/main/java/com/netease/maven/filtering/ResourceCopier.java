@@ -0,0 +1,156 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+import org.apache.maven.shared.utils.io.IOUtil;
+
+/**
+ * Copies the resources that are not filtered, byte for byte. The copy is done
+ * by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * into a temporary file that replaces the destination, and takes over the
+ * modification time of the source; a destination of the same size and
+ * modification time as its source is taken as up to date.
+ * <p>
+ * In {@link #HARDLINK} mode the destination is a hard link to the source
+ * instead, where the runtime (Java 7 and later) and the file system support
+ * it, and a copy otherwise. The output then shares its content with the
+ * source and must not be modified in place; the outputs written by this
+ * plugin always replace their destination through
+ * {@link OutputFiles#move(File, File)} or
+ * {@link OutputFiles#breakLink(File, File)}, which breaks the link.
+ */
+final class ResourceCopier {
+
+	static final String COPY = "copy";
+
+	static final String HARDLINK = "hardlink";
+
+	private static final Method CREATE_LINK;
+
+	private static final Method TO_PATH;
+
+	static {
+		Method createLink = null;
+		Method toPath = null;
+		try {
+			Class<?> path = Class.forName("java.nio.file.Path");
+			createLink = Class.forName("java.nio.file.Files").getMethod("createLink", path, path);
+			toPath = File.class.getMethod("toPath");
+		} catch (Exception e) {
+			// before Java 7, always copy
+		}
+		CREATE_LINK = createLink;
+		TO_PATH = toPath;
+	}
+
+	private final boolean hardlink;
+
+	/**
+	 * @param mode
+	 *            {@link #COPY} or {@link #HARDLINK}
+	 */
+	ResourceCopier(String mode) {
+		this.hardlink = HARDLINK.equals(mode);
+	}
+
+	boolean isHardlink() {
+		return hardlink;
+	}
+
+	/**
+	 * @param overwrite
+	 *            copy even if the destination looks up to date
+	 * @return true if <code>to</code> changed
+	 */
+	boolean copy(File from, File to, boolean overwrite) throws IOException {
+		if (!overwrite && to.isFile() && to.length() == from.length() && to.lastModified() == from.lastModified()) {
+			return false;
+		}
+		if (hardlink && link(from, to)) {
+			return true;
+		}
+		File temporary = OutputFiles.createTemporary(to);
+		try {
+			transfer(from, temporary);
+			temporary.setLastModified(from.lastModified());
+			OutputFiles.move(temporary, to);
+		} finally {
+			temporary.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if no link could be made, <code>to</code> is then left
+	 *         as it was
+	 */
+	private static boolean link(File from, File to) {
+		if (CREATE_LINK == null) {
+			return false;
+		}
+		try {
+			Object target = TO_PATH.invoke(from);
+			Object link = TO_PATH.invoke(to);
+			File moved = null;
+			if (to.exists()) {
+				// the link is created under a new name, keep the old output
+				// until it succeeded
+				moved = OutputFiles.createTemporary(to);
+				moved.delete();
+				if (!to.renameTo(moved)) {
+					return false;
+				}
+			}
+			try {
+				CREATE_LINK.invoke(null, link, target);
+			} catch (InvocationTargetException e) {
+				// another file system, or links not supported
+				if (moved != null) {
+					moved.renameTo(to);
+				}
+				return false;
+			}
+			if (moved != null) {
+				moved.delete();
+			}
+			return true;
+		} catch (IllegalAccessException e) {
+			return false;
+		} catch (InvocationTargetException e) {
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void transfer(File from, File to) throws IOException {
+		FileInputStream instream = null;
+		FileOutputStream outstream = null;
+		try {
+			instream = new FileInputStream(from);
+			outstream = new FileOutputStream(to);
+			FileChannel in = instream.getChannel();
+			FileChannel out = outstream.getChannel();
+			long position = 0;
+			long count = in.size();
+			while (position < count) {
+				long transferred = in.transferTo(position, count - position, out);
+				if (transferred <= 0) {
+					throw new IOException("source file changed while being copied: " + from.getPath());
+				}
+				position += transferred;
+			}
+			outstream.close();
+			outstream = null;
+		} finally {
+			IOUtil.close(instream);
+			IOUtil.close(outstream);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.netease.maven.filtering;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.MatchPatterns;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Selects the files and directories of a resource directory like the
+ * {@link org.codehaus.plexus.util.DirectoryScanner} of a non incremental
+ * build context, in one walk. The patterns are compiled once per resource,
+ * the default excludes once per class loader, and the matches are handed to a
+ * {@link Visitor} in the order of the directory scanner instead of being
+ * collected.
+ * <p>
+ * A directory matched by an exclude ending with <code>**</code> is not
+ * entered, nothing below it can be selected.
+ */
+final class ResourceScanner {
+
+	/**
+	 * receives the selected entries, names are relative to the scanned
+	 * directory and use the platform separator
+	 */
+	interface Visitor {
+		void directory(String name) throws MavenFilteringException;
+
+		void file(String name, File file) throws MavenFilteringException;
+	}
+
+	private static final String SUBTREE = File.separator + "**";
+
+	private static final MatchPatterns DEFAULT_EXCLUDES = MatchPatterns.from(normalize(AbstractScanner.DEFAULTEXCLUDES));
+
+	private static final MatchPatterns DEFAULT_SUBTREE_EXCLUDES = MatchPatterns
+			.from(subtrees(normalize(AbstractScanner.DEFAULTEXCLUDES)));
+
+	private final MatchPatterns includes;
+
+	private final MatchPatterns excludes;
+
+	private final MatchPatterns subtreeExcludes;
+
+	private final boolean addDefaultExcludes;
+
+	/**
+	 * @param excludes
+	 *            <code>null</code> if there is none
+	 */
+	ResourceScanner(String[] includes, String[] excludes, boolean addDefaultExcludes) {
+		String[] normalizedExcludes = excludes == null ? new String[0] : normalize(excludes);
+		this.includes = MatchPatterns.from(normalize(includes));
+		this.excludes = MatchPatterns.from(normalizedExcludes);
+		this.subtreeExcludes = MatchPatterns.from(subtrees(normalizedExcludes));
+		this.addDefaultExcludes = addDefaultExcludes;
+	}
+
+	void scan(File basedir, Visitor visitor) throws MavenFilteringException {
+		scan(basedir, "", new String[0], visitor);
+	}
+
+	private void scan(File directory, String path, String[] tokens, Visitor visitor) throws MavenFilteringException {
+		String[] entries = directory.list();
+		if (entries == null) {
+			return;
+		}
+		for (String entry : entries) {
+			String name = path + entry;
+			String[] tokenized = Arrays.copyOf(tokens, tokens.length + 1);
+			tokenized[tokens.length] = entry;
+			File file = new File(directory, entry);
+			if (file.isDirectory()) {
+				if (includes.matches(name, tokenized, true) && !isExcluded(name, tokenized)) {
+					visitor.directory(name);
+					scan(file, name + File.separator, tokenized, visitor);
+				} else if (includes.matchesPatternStart(name, true) && !isSubtreeExcluded(name, tokenized)) {
+					scan(file, name + File.separator, tokenized, visitor);
+				}
+			} else if (file.isFile() && includes.matches(name, tokenized, true) && !isExcluded(name, tokenized)) {
+				visitor.file(name, file);
+			}
+		}
+	}
+
+	private boolean isExcluded(String name, String[] tokenized) {
+		return excludes.matches(name, tokenized, true)
+				|| addDefaultExcludes && DEFAULT_EXCLUDES.matches(name, tokenized, true);
+	}
+
+	private boolean isSubtreeExcluded(String name, String[] tokenized) {
+		return subtreeExcludes.matches(name, tokenized, true)
+				|| addDefaultExcludes && DEFAULT_SUBTREE_EXCLUDES.matches(name, tokenized, true);
+	}
+
+	/**
+	 * @return the patterns matching everything below the directories they
+	 *         match
+	 */
+	private static List<String> subtrees(String[] patterns) {
+		List<String> subtrees = new ArrayList<String>();
+		for (String pattern : patterns) {
+			if (!pattern.startsWith(SelectorUtils.REGEX_HANDLER_PREFIX)
+					&& !pattern.startsWith(SelectorUtils.ANT_HANDLER_PREFIX)
+					&& (pattern.equals("**") || pattern.endsWith(SUBTREE))) {
+				subtrees.add(pattern);
+			}
+		}
+		return subtrees;
+	}
+
+	/**
+	 * Same as the patterns set on {@link AbstractScanner}.
+	 */
+	private static String[] normalize(String[] patterns) {
+		String[] normalized = new String[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i].trim();
+			if (pattern.startsWith(SelectorUtils.REGEX_HANDLER_PREFIX)) {
+				if (File.separatorChar == '\\') {
+					pattern = StringUtils.replace(pattern, "/", "\\\\");
+				} else {
+					pattern = StringUtils.replace(pattern, "\\\\", "/");
+				}
+			} else {
+				pattern = pattern.replace(File.separatorChar == '/' ? '\\' : '/', File.separatorChar);
+				if (pattern.endsWith(File.separator)) {
+					pattern += "**";
+				}
+			}
+			normalized[i] = pattern;
+		}
+		return normalized;
+	}
+}
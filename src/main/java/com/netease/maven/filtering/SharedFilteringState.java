@@ -0,0 +1,100 @@
+package com.netease.maven.filtering;
+
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Parts of the filtering setup that depend on the configuration only, shared
+ * by the executions of one Maven session: the compiled delimiters by their
+ * specifications, the compiled getter chains of the object value sources by
+ * their prefixes and the parsed expressions. None of them holds a value of a
+ * project, the session or the settings; value sources, properties and
+ * resolved answers stay with the execution.
+ * <p>
+ * The parts are held through soft references and the state goes away with its
+ * build, so neither memory pressure nor a long lived Maven process keeps them
+ * alive. The build is told by the {@link MavenExecutionRequest} of the
+ * session, since a parallel build hands each module its own clone of the
+ * {@link MavenSession} around the same request.
+ */
+final class SharedFilteringState {
+
+	private static final Map<Object, SharedFilteringState> BUILDS = new WeakHashMap<Object, SharedFilteringState>();
+
+	private final ConcurrentMap<String, SoftReference<DelimiterMatcher>> matchers = new ConcurrentHashMap<String, SoftReference<DelimiterMatcher>>();
+
+	private final ConcurrentMap<String, SoftReference<CompiledObjectValueSource.Accessors>> accessors = new ConcurrentHashMap<String, SoftReference<CompiledObjectValueSource.Accessors>>();
+
+	private volatile SoftReference<Map<String, FilteringEnhancerInterpolator.Expression>> expressions = new SoftReference<Map<String, FilteringEnhancerInterpolator.Expression>>(
+			null);
+
+	private SharedFilteringState() {
+	}
+
+	/**
+	 * @param session
+	 *            the current session, may be <code>null</code>
+	 * @return the state of the build of the session, <code>null</code> without
+	 *         a session
+	 */
+	static SharedFilteringState of(MavenSession session) {
+		if (session == null) {
+			return null;
+		}
+		Object build = session.getRequest() != null ? session.getRequest() : session;
+		synchronized (BUILDS) {
+			SharedFilteringState state = BUILDS.get(build);
+			if (state == null) {
+				state = new SharedFilteringState();
+				BUILDS.put(build, state);
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * Same as {@link DelimiterMatcher#compile(Collection)}, the order of the
+	 * specifications is part of the key.
+	 */
+	DelimiterMatcher getDelimiterMatcher(Collection<String> delimiters) {
+		String key = String.valueOf(delimiters);
+		DelimiterMatcher matcher = get(matchers, key);
+		if (matcher == null) {
+			matcher = DelimiterMatcher.compile(delimiters);
+			matchers.put(key, new SoftReference<DelimiterMatcher>(matcher));
+		}
+		return matcher;
+	}
+
+	CompiledObjectValueSource.Accessors getAccessors(List<String> prefixes, boolean allowUnprefixedExpressions) {
+		String key = prefixes + "\n" + allowUnprefixedExpressions;
+		CompiledObjectValueSource.Accessors compiled = get(accessors, key);
+		if (compiled == null) {
+			compiled = new CompiledObjectValueSource.Accessors(prefixes, allowUnprefixedExpressions);
+			accessors.put(key, new SoftReference<CompiledObjectValueSource.Accessors>(compiled));
+		}
+		return compiled;
+	}
+
+	Map<String, FilteringEnhancerInterpolator.Expression> getParsedExpressions() {
+		Map<String, FilteringEnhancerInterpolator.Expression> parsed = expressions.get();
+		if (parsed == null) {
+			parsed = FilteringEnhancerInterpolator.newParsedExpressions();
+			expressions = new SoftReference<Map<String, FilteringEnhancerInterpolator.Expression>>(parsed);
+		}
+		return parsed;
+	}
+
+	private static <T> T get(ConcurrentMap<String, SoftReference<T>> map, String key) {
+		SoftReference<T> reference = map.get(key);
+		return reference == null ? null : reference.get();
+	}
+}
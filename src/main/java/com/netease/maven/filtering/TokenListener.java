@@ -0,0 +1,17 @@
+package com.netease.maven.filtering;
+
+/**
+ * Notified by {@link MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding}
+ * for every complete token it replaced, including the ones served from its
+ * token cache.
+ */
+public interface TokenListener {
+
+	/**
+	 * @param token
+	 *            the token as found in the source, delimiters included
+	 * @param value
+	 *            the text written in its place
+	 */
+	void tokenResolved(String token, String value);
+}
@@ -0,0 +1,71 @@
+package com.netease.maven.filtering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.interpolation.ValueSource;
+
+/**
+ * Value sources of an interpolator indexed by the first character of the
+ * expressions they may answer. A source declared with prefixes only answers
+ * expressions starting with one of them, any other source may answer every
+ * expression. The candidates of an expression keep the order the sources were
+ * added in, so the first source knowing it still wins.
+ */
+final class ValueSourceIndex {
+
+	static final ValueSourceIndex EMPTY = new ValueSourceIndex(new ArrayList<ValueSource>(),
+			new ArrayList<String[]>());
+
+	private final ValueSource[] all;
+
+	/**
+	 * per ASCII first character, the sources that may answer
+	 */
+	private final ValueSource[][] byFirstChar = new ValueSource[128][];
+
+	/**
+	 * @param sources
+	 *            the value sources in lookup order
+	 * @param prefixes
+	 *            for every source, the prefixes of the expressions it answers,
+	 *            or <code>null</code> if it may answer any
+	 */
+	ValueSourceIndex(List<ValueSource> sources, List<String[]> prefixes) {
+		all = sources.toArray(new ValueSource[sources.size()]);
+		List<ValueSource> candidates = new ArrayList<ValueSource>(all.length);
+		for (char c = 0; c < byFirstChar.length; c++) {
+			candidates.clear();
+			for (int i = 0; i < all.length; i++) {
+				if (mayAnswer(prefixes.get(i), c)) {
+					candidates.add(all[i]);
+				}
+			}
+			byFirstChar[c] = candidates.size() == all.length ? all
+					: candidates.toArray(new ValueSource[candidates.size()]);
+		}
+	}
+
+	private static boolean mayAnswer(String[] prefixes, char c) {
+		if (prefixes == null) {
+			return true;
+		}
+		for (String prefix : prefixes) {
+			if (prefix.length() == 0 || prefix.charAt(0) == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sources that may answer <code>expression</code>, in lookup
+	 *         order
+	 */
+	ValueSource[] candidates(String expression) {
+		if (expression.length() > 0 && expression.charAt(0) < byFirstChar.length) {
+			return byFirstChar[expression.charAt(0)];
+		}
+		return all;
+	}
+}
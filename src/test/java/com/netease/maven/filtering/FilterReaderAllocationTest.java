@@ -0,0 +1,85 @@
+package com.netease.maven.filtering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Filtering literal text and repeated tokens must not allocate per character,
+ * see {@link MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding}.
+ */
+public class FilterReaderAllocationTest {
+
+	private static final int REPEAT = 20000;
+
+	/**
+	 * allowed for the reader itself, its window and the first resolution of
+	 * each token
+	 */
+	private static final long FIXED_BYTES = 256 * 1024;
+
+	@Test
+	public void steadyStateAllocatesNothingPerCharacter() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < REPEAT; i++) {
+			text.append("plain literal text, name=${name} version=${version} \\${escaped}\n");
+		}
+		String input = text.toString();
+		Properties properties = new Properties();
+		properties.setProperty("name", "filtering");
+		properties.setProperty("version", "1.0");
+		char[] buffer = new char[8192];
+
+		// warm up the interpolator caches and the code paths
+		assertEquals(REPEAT * "plain literal text, name=filtering version=1.0 ${escaped}\n".length(),
+				drain(newReader(input, properties), buffer));
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		long length = drain(newReader(input, properties), buffer);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		// the reader used to allocate tens of bytes per character
+		long bound = FIXED_BYTES + length / 8;
+		assertTrue("allocated " + allocated + " bytes filtering " + length + " characters, bound " + bound,
+				allocated < bound);
+	}
+
+	private static Reader newReader(String input, Properties properties) {
+		FilteringEnhancerInterpolator interpolator = new FilteringEnhancerInterpolator();
+		interpolator.addValueSource(new PropertiesBasedValueSource(properties));
+		MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding reader = new MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding(
+				new StringReader(input), interpolator, true);
+		reader.setDelimiterSpecs(new LinkedHashSet<String>(Arrays.asList("${*}", "@")));
+		reader.setEscapeString("\\");
+		reader.setInterpolateWithPrefixPattern(false);
+		return reader;
+	}
+
+	private static long drain(Reader reader, char[] buffer) throws IOException {
+		long length = 0;
+		int n;
+		while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+			length += n;
+		}
+		reader.close();
+		return length;
+	}
+}
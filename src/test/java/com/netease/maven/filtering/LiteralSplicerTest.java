@@ -0,0 +1,237 @@
+package com.netease.maven.filtering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.maven.shared.utils.io.IOUtil;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.netease.maven.filtering.FilteringEnhancer.EnhencerWrappers;
+
+/**
+ * {@link LiteralSplicer} and {@link ByteTokenFilter} must write the same bytes
+ * as the filtering reader, or leave the file to it.
+ */
+public class LiteralSplicerTest {
+
+	private static final String[] ENCODINGS = { "UTF-8", "ISO-8859-1", "US-ASCII" };
+
+	private static final String[] PIECES = { "${a}", "${b}", "@a@", "\\${a}", "\\@b@", "${missing}", "${a?dflt}",
+			"${", "@", "\\", "}", "\n", "\r\n", "\r", "${multi\nline}", "${a}\r\n", "é", "中", "😀", "plain text ",
+			"${sur}", "${empty}", "\\\\${a}", "${a}\\", "${missing?${a?x}}", "${missing?${b}-${a}}", "?" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Properties properties = new Properties();
+
+	public LiteralSplicerTest() {
+		properties.setProperty("a", "AAA");
+		properties.setProperty("b", "ü${a}");
+		properties.setProperty("multi\nline", "ML");
+		properties.setProperty("sur", "😁");
+		properties.setProperty("empty", "");
+		properties.setProperty("中中中中中", "zh");
+	}
+
+	@Test
+	public void multibyteCharactersAtTheEndOfTheReach() throws IOException {
+		for (int lookahead = 4; lookahead < 40; lookahead++) {
+			for (int before = 0; before < 6; before++) {
+				StringBuilder text = new StringBuilder();
+				for (int i = 0; i < before; i++) {
+					text.append('中');
+				}
+				text.append("${a}");
+				for (int i = 0; i < lookahead + 4; i++) {
+					text.append(i % 2 == 0 ? "中" : "é");
+				}
+				// fits the lookahead in characters, not in bytes
+				text.append("${b}😀${中中中中中}-${a?中é中é}-${a");
+				for (int i = 0; i < lookahead; i++) {
+					text.append('中');
+				}
+				text.append("}end");
+				assertSame(text.toString(), "UTF-8", lookahead, true, "\\");
+				assertSame(text.toString(), "UTF-8", lookahead, false, "\\");
+			}
+		}
+	}
+
+	@Test
+	public void lineEndings() throws IOException {
+		String text = "k=${a}\r\nl=@a@\r\n${multi\r\nline}\r\n${a\r\n}\r${b}\n\r\n\\${a}\r\n";
+		for (String encoding : ENCODINGS) {
+			assertSame(text, encoding, 4096, true, "\\");
+			assertSame(text, encoding, 4096, false, "\\");
+			assertSame(text, encoding, 6, false, null);
+		}
+	}
+
+	@Test
+	public void escapeStrings() throws IOException {
+		String text = "\\${a} \\\\${a} \\@a@ x\\ ${a}\\ \\${missing} \\${a?d} ${a}\\${b}";
+		for (String encoding : ENCODINGS) {
+			assertSame(text, encoding, 4096, false, "\\");
+			assertSame(text, encoding, 4096, false, null);
+		}
+		assertSame("!!${a} !${a} ${a}!! !!", "UTF-8", 4096, false, "!!");
+	}
+
+	@Test
+	public void malformedInputIsLeftToTheReader() throws IOException {
+		EnhencerWrappers wrapper = newWrapper(4096, false, "\\");
+		byte[][] inputs = { { '$', '{', 'a', '}', (byte) 0xC3 }, { 'x', (byte) 0xC3, '(', '$', '{', 'a', '}' },
+				{ (byte) 0xED, (byte) 0xA0, (byte) 0x80, '@', 'a', '@' }, { (byte) 0xFF, '$', '{', 'a', '}' } };
+		for (byte[] input : inputs) {
+			File source = write(input);
+			File output = new File(folder.getRoot(), "out");
+			output.delete();
+			LiteralSplicer splicer = wrapper.getSplicer("UTF-8");
+			assertNotNull(splicer);
+			assertFalse(Arrays.toString(input), splicer.filter(source, output, wrapper, null, null));
+			assertFalse(output.exists());
+		}
+		File source = write(new byte[] { 'x', (byte) 0xE9, '$', '{', 'a', '}' });
+		assertFalse(wrapper.getSplicer("US-ASCII").filter(source, new File(folder.getRoot(), "out"), wrapper, null,
+				null));
+	}
+
+	@Test
+	public void randomInputs() throws IOException {
+		Random random = new Random(1);
+		int spliced = 0;
+		for (int round = 0; round < 200; round++) {
+			String encoding = ENCODINGS[random.nextInt(ENCODINGS.length)];
+			int lookahead = random.nextBoolean() ? 4096 : 8 + random.nextInt(300);
+			String escape = random.nextInt(4) == 0 ? null : "\\";
+			int size = random.nextInt(4) == 0 ? random.nextInt(200) : random.nextInt(80000);
+			double density = random.nextDouble() * 0.05;
+			StringBuilder text = new StringBuilder();
+			while (text.length() < size) {
+				if (random.nextDouble() < density) {
+					text.append(PIECES[random.nextInt(PIECES.length)]);
+				} else {
+					text.append(random.nextInt(40) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+				}
+			}
+			if (assertSame(text.toString(), encoding, lookahead, random.nextBoolean(), escape)) {
+				spliced++;
+			}
+		}
+		// only the inputs with characters outside the encoding fall back
+		assertTrue("spliced " + spliced, spliced > 100);
+	}
+
+	/**
+	 * Filters <code>text</code> with both engines, unless the splicer leaves
+	 * it to the reader, and compares the outputs and the reported lookahead
+	 * overruns.
+	 *
+	 * @return false if the splicer left the file to the reader
+	 */
+	private boolean assertSame(String text, String encoding, int lookahead, boolean multiLine, String escape)
+			throws IOException {
+		EnhencerWrappers wrapper = newWrapper(lookahead, multiLine, escape);
+		File source = write(text.getBytes(encoding));
+		File read = new File(folder.getRoot(), "read");
+		File spliced = new File(folder.getRoot(), "spliced");
+		String description = encoding + " lookahead " + lookahead + " multiLine " + multiLine + " escape " + escape
+				+ ": " + text;
+
+		RecordingListener readerOverrun = new RecordingListener();
+		String readerFailure = null;
+		try {
+			MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding reader = (MultiDelimiterInterpolatorEnhencerFilterReaderLineEnding) wrapper
+					.getReader(new InputStreamReader(new FileInputStream(source), encoding));
+			reader.setLookaheadListener(readerOverrun);
+			copy(reader, new OutputStreamWriter(new FileOutputStream(read), encoding));
+		} catch (RuntimeException e) {
+			readerFailure = e.toString();
+		}
+
+		RecordingListener splicerOverrun = new RecordingListener();
+		String splicerFailure = null;
+		LiteralSplicer splicer = wrapper.getSplicer(encoding);
+		assertNotNull(description, splicer);
+		try {
+			if (!splicer.filter(source, spliced, wrapper, null, splicerOverrun)) {
+				// the reader filters it
+				return false;
+			}
+		} catch (RuntimeException e) {
+			splicerFailure = e.toString();
+		}
+
+		assertEquals(description, readerFailure, splicerFailure);
+		if (readerFailure == null) {
+			assertEquals(description, readerOverrun.expression, splicerOverrun.expression);
+			assertArrayEquals(description, toByteArray(read), toByteArray(spliced));
+		}
+		return true;
+	}
+
+	private EnhencerWrappers newWrapper(int lookahead, boolean multiLine, String escape) {
+		LinkedHashSet<String> delimiters = new LinkedHashSet<String>(Arrays.asList("${*}", "@"));
+		return new FilteringEnhancer().new EnhencerWrappers(delimiters, null, null,
+				new PropertiesBasedValueSource(properties), null, escape, false, multiLine, lookahead, false);
+	}
+
+	private File write(byte[] content) throws IOException {
+		File file = new File(folder.getRoot(), "source");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void copy(Reader reader, Writer writer) throws IOException {
+		try {
+			IOUtil.copy(reader, writer);
+		} finally {
+			reader.close();
+			writer.close();
+		}
+	}
+
+	private static byte[] toByteArray(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static final class RecordingListener implements LookaheadListener {
+		String expression;
+
+		public void lookaheadExceeded(String expression) {
+			assertTrue("reported twice", this.expression == null);
+			this.expression = expression;
+		}
+	}
+}
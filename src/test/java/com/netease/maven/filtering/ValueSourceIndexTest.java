@@ -0,0 +1,150 @@
+package com.netease.maven.filtering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.interpolation.SimpleRecursionInterceptor;
+import org.codehaus.plexus.interpolation.ValueSource;
+import org.junit.Test;
+
+/**
+ * The indexed lookup of {@link ValueSourceIndex} must answer every expression
+ * from the same source as a linear walk over the sources in order.
+ */
+public class ValueSourceIndexTest {
+
+	private static final String[] EXPRESSIONS = { "", "version", "project.version", "pom.version", "projectversion",
+			"p", "p.x", "pom", "project", "session.id", "settings.offline", "shared", "project.shared", "pom.shared",
+			"localRepository", "localRepositoryX", "été", "é", ".version", "unknown", "s", "x.y" };
+
+	/**
+	 * answers the keys of its map that start with one of its prefixes, or
+	 * every key of its map if it has none
+	 */
+	private static final class Source implements ValueSource {
+		final String name;
+
+		final String[] prefixes;
+
+		final Map<String, String> values = new HashMap<String, String>();
+
+		Source(String name, String... prefixes) {
+			this.name = name;
+			this.prefixes = prefixes.length == 0 ? null : prefixes;
+		}
+
+		Source with(String... keys) {
+			for (String key : keys) {
+				values.put(key, name + ":" + key);
+			}
+			return this;
+		}
+
+		public Object getValue(String expression) {
+			if (prefixes != null) {
+				boolean matches = false;
+				for (String prefix : prefixes) {
+					matches |= expression.startsWith(prefix);
+				}
+				if (!matches) {
+					return null;
+				}
+			}
+			return values.get(expression);
+		}
+
+		@SuppressWarnings("rawtypes")
+		public List getFeedback() {
+			return Collections.EMPTY_LIST;
+		}
+
+		public void clearFeedback() {
+		}
+	}
+
+	private static List<Source> sources() {
+		List<Source> sources = new ArrayList<Source>();
+		// no prefixes, may answer anything, including the empty expression
+		sources.add(new Source("properties").with("", "version", "shared", "project.shared", "été", ".version"));
+		// overlapping prefixes on the same first character
+		sources.add(new Source("project", "project.", "pom.").with("project.version", "pom.version", "project.shared",
+				"pom.shared"));
+		sources.add(new Source("p", "p").with("p", "p.x", "pom", "project", "projectversion", "pom.version",
+				"project.version"));
+		sources.add(new Source("session", "session.").with("session.id"));
+		sources.add(new Source("settings", "settings.").with("settings.offline"));
+		sources.add(new Source("localRepository", "localRepository").with("localRepository", "localRepositoryX"));
+		// no prefixes after prefixed sources, holds keys of all of them
+		sources.add(new Source("fallback").with("project.version", "session.id", "settings.offline", "s", "x.y",
+				"é", "unknown", "localRepository"));
+		return sources;
+	}
+
+	@Test
+	public void candidatesAnswerLikeLinearWalk() {
+		List<Source> sources = sources();
+		List<ValueSource> valueSources = new ArrayList<ValueSource>();
+		List<String[]> prefixes = new ArrayList<String[]>();
+		for (Source source : sources) {
+			valueSources.add(source);
+			prefixes.add(source.prefixes);
+		}
+		ValueSourceIndex index = new ValueSourceIndex(valueSources, prefixes);
+
+		for (String expression : EXPRESSIONS) {
+			assertEquals(expression, answer(valueSources, expression),
+					answer(Arrays.asList(index.candidates(expression)), expression));
+		}
+	}
+
+	@Test
+	public void candidatesKeepTheOrderOfTheSources() {
+		List<Source> sources = sources();
+		List<ValueSource> valueSources = new ArrayList<ValueSource>();
+		List<String[]> prefixes = new ArrayList<String[]>();
+		for (Source source : sources) {
+			valueSources.add(source);
+			prefixes.add(source.prefixes);
+		}
+		ValueSourceIndex index = new ValueSourceIndex(valueSources, prefixes);
+
+		assertArrayEquals(new ValueSource[] { sources.get(0), sources.get(1), sources.get(2), sources.get(6) },
+				index.candidates("project.version"));
+		assertArrayEquals(valueSources.toArray(), index.candidates(""));
+		assertArrayEquals(valueSources.toArray(), index.candidates("é"));
+	}
+
+	@Test
+	public void interpolatorAnswersLikeLinearWalk() throws Exception {
+		FilteringEnhancerInterpolator indexed = new FilteringEnhancerInterpolator();
+		FilteringEnhancerInterpolator linear = new FilteringEnhancerInterpolator();
+		for (Source source : sources()) {
+			indexed.addValueSource(source, source.prefixes);
+			// without prefixes every source is a candidate of every expression
+			linear.addValueSource(source, null);
+		}
+
+		for (String expression : EXPRESSIONS) {
+			String text = "${" + expression + "}";
+			assertEquals(text, linear.interpolate(text, new SimpleRecursionInterceptor()),
+					indexed.interpolate(text, new SimpleRecursionInterceptor()));
+		}
+	}
+
+	private static Object answer(List<ValueSource> sources, String expression) {
+		for (ValueSource source : sources) {
+			Object value = source.getValue(expression);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+}